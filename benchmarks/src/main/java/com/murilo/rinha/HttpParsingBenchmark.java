@@ -0,0 +1,65 @@
+package com.murilo.rinha;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.murilo.rinha.config.ByteScan;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/** Helpers de parsing do servidor UDS sobre um header como o haproxy manda. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpParsingBenchmark {
+
+  @Param({"keep-alive", "close"})
+  public String connection;
+
+  private ByteBuffer hdr;
+  private int headerEnd;
+
+  @Setup
+  public void setup() {
+    String body = "{\"correlationId\":\"4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3\",\"amount\":19.90}";
+    String req = "POST /payments HTTP/1.1\r\n"
+        + "host: localhost:9999\r\n"
+        + "user-agent: k6/0.49.0 (https://k6.io/)\r\n"
+        + "content-type: application/json\r\n"
+        + "content-length: " + body.length() + "\r\n"
+        + ("close".equals(connection) ? "connection: close\r\n" : "")
+        + "\r\n" + body;
+    hdr = ByteBuffer.allocateDirect(8192);
+    hdr.put(req.getBytes(StandardCharsets.US_ASCII));
+    headerEnd = ByteScan.indexOfCrlfCrlf(hdr, 0, hdr.position());
+  }
+
+  @Benchmark
+  public int indexOfCrlfCrlf() {
+    return ByteScan.indexOfCrlfCrlf(hdr, 0, hdr.position());
+  }
+
+  @Benchmark
+  public int parseContentLength() {
+    return RinhaApplication.parseContentLengthAscii(hdr, headerEnd);
+  }
+
+  @Benchmark
+  public boolean headerHasClose() {
+    return RinhaApplication.headerHasClose(hdr, headerEnd);
+  }
+}
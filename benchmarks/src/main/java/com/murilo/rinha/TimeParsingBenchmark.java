@@ -0,0 +1,86 @@
+package com.murilo.rinha;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.murilo.rinha.config.IsoTime;
+import com.murilo.rinha.config.SummaryQuery;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Query do /payments-summary e requestedAt: caminho do JDK contra o parser em bytes. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimeParsingBenchmark {
+
+  private static final String QUERY = "from=2025-07-15T12:34:56.000Z&to=2025-07-15T12:35:56.000Z";
+  private static final String ISO = "2025-07-15T12:34:56.789Z";
+
+  private ByteBuffer hdr;
+  private int queryStart;
+  private int queryEnd;
+  private byte[] iso;
+  private final SummaryQuery query = new SummaryQuery();
+  private long millis;
+
+  @Setup
+  public void setup() {
+    String req = "GET /payments-summary?" + QUERY + " HTTP/1.1\r\nhost: localhost:9999\r\n\r\n";
+    hdr = ByteBuffer.allocateDirect(8192);
+    hdr.put(req.getBytes(StandardCharsets.US_ASCII));
+    queryStart = req.indexOf('?');
+    queryEnd = req.indexOf(' ', queryStart);
+    iso = ISO.getBytes(StandardCharsets.US_ASCII);
+    millis = Instant.parse(ISO).toEpochMilli();
+  }
+
+  @Benchmark
+  public long parseIsoJdk() {
+    return Instant.parse(ISO).truncatedTo(ChronoUnit.MILLIS).toEpochMilli();
+  }
+
+  @Benchmark
+  public long parseIsoBytes() {
+    return IsoTime.parseMillis(iso, 0, iso.length);
+  }
+
+  @Benchmark
+  public long summaryQueryJdk() {
+    Map<String, String> params = RinhaApplication.parseQuery(QUERY);
+    return Instant.parse(params.get("from")).truncatedTo(ChronoUnit.MILLIS).toEpochMilli()
+        + Instant.parse(params.get("to")).truncatedTo(ChronoUnit.MILLIS).toEpochMilli();
+  }
+
+  @Benchmark
+  public long summaryQueryBytes() {
+    query.parse(hdr, queryStart, queryEnd, 0, 0);
+    return query.from + query.to;
+  }
+
+  @Benchmark
+  public String formatJdk() {
+    return Instant.ofEpochMilli(millis).toString();
+  }
+
+  @Benchmark
+  public String formatBytes() {
+    return IsoTime.format(millis);
+  }
+}
@@ -0,0 +1,94 @@
+package com.murilo.rinha.config;
+
+import com.murilo.rinha.service.PaymentService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ByteScan contra os loops byte a byte que ele substituiu, num header com {@code headerBytes}
+ * de campos antes do CRLFCRLF (180 e o tamanho tipico vindo do haproxy).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ByteScanBenchmark {
+
+  private static final byte[] CRLFCRLF = new byte[]{'\r', '\n', '\r', '\n'};
+
+  @Param({"180", "1024", "7000"})
+  public int headerBytes;
+
+  private ByteBuffer hdr;
+  private String body;
+  private String search;
+
+  @Setup
+  public void setup() {
+    StringBuilder sb = new StringBuilder("POST /payments HTTP/1.1\r\nhost: localhost:9999\r\n");
+    while (sb.length() < headerBytes) sb.append("x-padding: abcdefghijklmnopqrstuvwxyz0123456789\r\n");
+    sb.append("content-length: 70\r\n\r\n");
+    hdr = ByteBuffer.allocateDirect(8192);
+    hdr.put(sb.toString().getBytes(StandardCharsets.US_ASCII));
+    body = "{\"correlationId\":\"4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3\",\"amount\":19.90}";
+    search = "correlationId";
+  }
+
+  @Benchmark
+  public int crlfCrlfScalar() {
+    int lim = hdr.position();
+    outer: for (int i = 0; i <= lim - CRLFCRLF.length; i++) {
+      for (int j = 0; j < CRLFCRLF.length; j++) if (hdr.get(i + j) != CRLFCRLF[j]) continue outer;
+      return i;
+    }
+    return -1;
+  }
+
+  @Benchmark
+  public int crlfCrlfSwar() {
+    return ByteScan.indexOfCrlfCrlf(hdr, 0, hdr.position());
+  }
+
+  @Benchmark
+  public int lastNewlineScalar() {
+    int lim = hdr.position();
+    int last = -1;
+    for (int i = 0; i < lim; i++) if (hdr.get(i) == '\n') last = i;
+    return last;
+  }
+
+  @Benchmark
+  public int lastNewlineSwar() {
+    int lim = hdr.position();
+    int last = -1, i = 0;
+    while ((i = ByteScan.indexOf(hdr, (byte) '\n', i, lim)) >= 0) last = i++;
+    return last;
+  }
+
+  @Benchmark
+  public String extractValueConcatKey() {
+    String s = "\"" + search + "\":";
+    int start = body.indexOf(s) + s.length() + 1;
+    return body.substring(start, body.indexOf('"', start));
+  }
+
+  @Benchmark
+  public String extractValue() {
+    return PaymentService.extractValue(body, search);
+  }
+}
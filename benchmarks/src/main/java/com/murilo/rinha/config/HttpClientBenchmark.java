@@ -0,0 +1,122 @@
+package com.murilo.rinha.config;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * postJson contra um stub em loopback que responde 200 sem corpo, como o processador.
+ * Mede o cliente (pool, framing, parse da resposta) mais o RTT de loopback.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HttpClientBenchmark {
+
+  private static final byte[] RESPONSE = ("HTTP/1.1 200 OK\r\n"
+      + "Content-Type: application/json\r\n"
+      + "Content-Length: 2\r\n\r\n{}").getBytes(StandardCharsets.US_ASCII);
+
+  private final byte[] payload = ("{\"correlationId\":\"4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3\","
+      + "\"amount\":\"19.90\",\"requestedAt\":\"2025-07-15T12:34:56.000Z\"}").getBytes(StandardCharsets.UTF_8);
+
+  private ServerSocket server;
+  private MyUltraHttp11Client client;
+
+  @Setup(Level.Trial)
+  public void start() throws IOException {
+    server = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+    Thread.ofPlatform().daemon().start(this::acceptLoop);
+    client = new MyUltraHttp11Client("127.0.0.1", server.getLocalPort(), "/payments", 8);
+  }
+
+  @TearDown(Level.Trial)
+  public void stop() throws IOException {
+    client.close();
+    server.close();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int postJson() {
+    return client.postJson(payload, false);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public int postJsonContended() {
+    return client.postJson(payload, false);
+  }
+
+  private void acceptLoop() {
+    try {
+      while (!server.isClosed()) {
+        Socket s = server.accept();
+        s.setTcpNoDelay(true);
+        Thread.ofPlatform().daemon().start(() -> serve(s));
+      }
+    } catch (IOException ignore) {
+    }
+  }
+
+  // le header + Content-Length e responde; keep-alive ate o cliente fechar
+  private static void serve(Socket s) {
+    byte[] buf = new byte[4096];
+    try (s; InputStream in = s.getInputStream(); OutputStream out = s.getOutputStream()) {
+      int len = 0;
+      for (;;) {
+        int n = in.read(buf, len, buf.length - len);
+        if (n < 0) return;
+        len += n;
+        int end;
+        while ((end = requestEnd(buf, len)) > 0) {
+          out.write(RESPONSE);
+          out.flush();
+          System.arraycopy(buf, end, buf, 0, len - end);
+          len -= end;
+        }
+      }
+    } catch (IOException ignore) {
+    }
+  }
+
+  private static int requestEnd(byte[] b, int len) {
+    for (int i = 3; i < len; i++) {
+      if (b[i - 3] == '\r' && b[i - 2] == '\n' && b[i - 1] == '\r' && b[i] == '\n') {
+        String head = new String(b, 0, i, StandardCharsets.US_ASCII).toLowerCase();
+        int idx = head.indexOf("content-length:");
+        int cl = 0;
+        if (idx >= 0) {
+          int p = idx + 15;
+          while (head.charAt(p) == ' ') p++;
+          while (p < head.length() && Character.isDigit(head.charAt(p))) cl = cl * 10 + (head.charAt(p++) - '0');
+        }
+        int total = i + 1 + cl;
+        return total <= len ? total : -1;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,50 @@
+package com.murilo.rinha.metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Custo de registrar no caminho quente; o gc profiler deve mostrar 0 B/op. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+
+  private final Histogram histogram = new Histogram();
+  private final Counter counter = new Counter();
+  private long value = 1;
+
+  @Benchmark
+  public void histogramRecord() {
+    histogram.record(value = value * 6364136223846793005L + 1442695040888963407L >>> 40);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void histogramRecordContended() {
+    histogram.record(System.nanoTime() & 0xFFFFFF);
+  }
+
+  @Benchmark
+  public void histogramRecordSince() {
+    histogram.recordSince(System.nanoTime());
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void counterIncContended() {
+    counter.inc();
+  }
+}
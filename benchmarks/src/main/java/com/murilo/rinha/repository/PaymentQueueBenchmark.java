@@ -0,0 +1,67 @@
+package com.murilo.rinha.repository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Fila em memoria (sem WAL) com produtores (aceite) e consumidores (workers) disputando. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class PaymentQueueBenchmark {
+
+  private static final String BODY = "{\"correlationId\":\"4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3\",\"amount\":19.90}";
+
+  private InMemoryPaymentQueueRepository queue;
+
+  @Setup
+  public void setup() {
+    queue = new InMemoryPaymentQueueRepository();
+  }
+
+  @Benchmark
+  @Group("single")
+  @GroupThreads(1)
+  public boolean singleProduce() {
+    return queue.enqueue(queue.accept(BODY));
+  }
+
+  @Benchmark
+  @Group("single")
+  @GroupThreads(1)
+  public QueuedPayment singleConsume() {
+    QueuedPayment p = queue.dequeue();
+    if (p != null) queue.ack(p);
+    return p;
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(4)
+  public boolean contendedProduce() {
+    return queue.enqueue(queue.accept(BODY));
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(4)
+  public QueuedPayment contendedConsume() {
+    QueuedPayment p = queue.dequeue();
+    if (p != null) queue.ack(p);
+    return p;
+  }
+}
@@ -0,0 +1,76 @@
+package com.murilo.rinha.repository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ledger pre-carregado com N pagamentos, ~2 por ms como no pico do teste, metade em cada
+ * processador. O summary "window" pega os ultimos 10s, o "full" o ledger inteiro.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+@State(Scope.Benchmark)
+public class PaymentRepositoryBenchmark {
+
+  private static final long BASE = Instant.parse("2025-07-15T12:00:00Z").toEpochMilli();
+
+  @Param({"10000", "1000000", "10000000"})
+  public int payments;
+
+  /** raw: tudo por ms; compacted: BASE ja passou das janelas e vira rollup. */
+  @Param({"raw", "compacted"})
+  public String retention;
+
+  private InMemoryPaymentRepository repository;
+  private long from;
+  private long to;
+  private long windowFrom;
+  private long next;
+
+  @Setup(Level.Trial)
+  public void fill() {
+    repository = retention.equals("raw")
+        ? new InMemoryPaymentRepository(2, 0, 0, 0)
+        : new InMemoryPaymentRepository(2, 60_000, 3_600_000, Long.MAX_VALUE);
+    for (int i = 0; i < payments; i++) {
+      repository.save(0, i % 2, BASE + i / 2, "19.90", null);
+    }
+    if (!retention.equals("raw")) repository.compact(System.currentTimeMillis());
+    from = BASE;
+    to = BASE + payments / 2;
+    windowFrom = to - 10_000;
+    next = payments;
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void save() {
+    repository.save(0, 0, BASE + (next++ >> 1), "19.90", null);
+  }
+
+  @Benchmark
+  public PaymentTotals summaryWindow() {
+    return repository.optimizedSummary(0, windowFrom, to);
+  }
+
+  @Benchmark
+  public PaymentTotals summaryFull() {
+    return repository.optimizedSummary(0, from, to);
+  }
+}
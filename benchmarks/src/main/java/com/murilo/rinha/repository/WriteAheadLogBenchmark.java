@@ -0,0 +1,67 @@
+package com.murilo.rinha.repository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Custo do WAL no POST: append + ack por pagamento. SampleTime para ler o p99 direto;
+ * o orcamento e p99 < 50us com none/interval.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class WriteAheadLogBenchmark {
+
+  private static final String BODY = "{\"correlationId\":\"4a7901b8-7d26-4d9d-aa19-4dc1c7cf60b3\",\"amount\":19.90}";
+
+  @Param({"NONE", "INTERVAL", "ALWAYS"})
+  public String sync;
+
+  private Path dir;
+  private PaymentWriteAheadLog wal;
+
+  @Setup(Level.Trial)
+  public void open() throws IOException {
+    dir = Files.createTempDirectory("rinha-wal-bench");
+    wal = new PaymentWriteAheadLog(dir, 4 * 1024 * 1024, PaymentWriteAheadLog.SyncPolicy.valueOf(sync), 5, 100);
+    wal.recover(body -> {});
+  }
+
+  @TearDown(Level.Trial)
+  public void close() throws IOException {
+    wal.close();
+    try (Stream<Path> files = Files.walk(dir)) {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  public long appendAndAck() {
+    long seq = wal.append(BODY);
+    wal.ack(seq);
+    return seq;
+  }
+}
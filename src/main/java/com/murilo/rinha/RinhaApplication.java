@@ -3,35 +3,48 @@ package com.murilo.rinha;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.murilo.rinha.capture.TrafficCapture;
 import com.murilo.rinha.client.HostLockClient;
-import com.murilo.rinha.client.MyUltraHttpPaymentProcessorClient;
 import com.murilo.rinha.config.AppConfig;
+import com.murilo.rinha.config.ByteScan;
+import com.murilo.rinha.config.ChunkedResponse;
+import com.murilo.rinha.config.HttpListeners;
+import com.murilo.rinha.config.InboundConnections;
+import com.murilo.rinha.config.IsoTime;
+import com.murilo.rinha.config.MillisClock;
+import com.murilo.rinha.config.ResourceProfile;
+import com.murilo.rinha.config.RuntimeConfig;
+import com.murilo.rinha.config.SummaryQuery;
 import com.murilo.rinha.controller.PaymentController;
+import com.murilo.rinha.metrics.MetricsRegistry;
+import com.murilo.rinha.repository.CorrelationIdSet;
 import com.murilo.rinha.repository.InMemoryPaymentQueueRepository;
 import com.murilo.rinha.repository.InMemoryPaymentRepository;
+import com.murilo.rinha.repository.PaymentWriteAheadLog;
+import com.murilo.rinha.service.AdmissionController;
+import com.murilo.rinha.service.GracefulDrain;
 import com.murilo.rinha.service.InMemoryPaymentDLQProcessor;
+import com.murilo.rinha.service.InlineFastPath;
 import com.murilo.rinha.service.ProcessorHealthCheckService;
+import com.murilo.rinha.service.SharedHealthState;
 import com.murilo.rinha.service.PaymentService;
+import com.murilo.rinha.service.ProcessorRegistry;
 
 import java.io.IOException;
-import java.net.StandardProtocolFamily;
-import java.net.UnixDomainSocketAddress;
 import java.net.URLDecoder;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
-import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -42,90 +55,132 @@ public class RinhaApplication {
   private static final byte[] GET_PREFIX    = "GET ".getBytes(StandardCharsets.US_ASCII);
   private static final byte[] PATH_PAYMENTS = "/payments".getBytes(StandardCharsets.US_ASCII);
   private static final byte[] HTTP_1_1      = " HTTP/1.1".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] PURGE_SUFFIX  = "-purge HTTP/1.1".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] HANDOFF_SUFFIX = "-handoff HTTP/1.1".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] PATH_SUMMARY  = "/payments-summary".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] LOCK_SUFFIX   = "-lock".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] SERIES_SUFFIX = "/series".getBytes(StandardCharsets.US_ASCII);
+  private static final long DEFAULT_WINDOW_MS = 150_000;
+  private static final long DEFAULT_SERIES_STEP_MS = 10_000;
+  private static final String PURGE_ORIGIN  = HostLockClient.PURGE_ORIGIN_HEADER.toLowerCase();
+  private static final byte[] PATH_ADMIN_CONFIG = "/admin/config".getBytes(StandardCharsets.US_ASCII);
+  private static final String ADMIN_TOKEN   = "x-rinha-admin-token";
+  private static final int ADMIN_MAX_BODY   = 4096;
+  private static final String HANDOFF_TOKEN = HostLockClient.HANDOFF_TOKEN_HEADER.toLowerCase();
+  /** Por registro do lote: corpo de um pagamento mais o prefixo {@code <idadeMs> <bytes>\n}. */
+  private static final int HANDOFF_RECORD_MAX = 256;
 
   private static final int HDR_BUF_CAP = 8192;
-  private static final int BODY_CHUNK  = 64 * 1024;
-  private static final ThreadLocal<ByteBuffer> TL_HDR  = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(HDR_BUF_CAP));
-  private static final ThreadLocal<ByteBuffer> TL_BODY = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BODY_CHUNK));
+  private static final int SERIES_CHUNK = 16 * 1024;
+  private static final String KEEP_ALIVE = "Connection: keep-alive\r\nKeep-Alive: timeout="
+      + Math.max(1, AppConfig.getIdleTimeoutMs() / 1000) + "\r\n";
+  private static final ByteBuffer OK_EMPTY_KEEP = directConstant("HTTP/1.1 200 OK\r\n"
+      + "Content-Length: 0\r\n"
+      + KEEP_ALIVE
+      + "\r\n");
+  private static final ByteBuffer OK_EMPTY_CLOSE = directConstant("HTTP/1.1 200 OK\r\n"
+      + "Content-Length: 0\r\n"
+      + "Connection: close\r\n"
+      + "\r\n");
   private static final ThreadLocal<CharsetDecoder> TL_UTF8_DEC = ThreadLocal.withInitial(() -> StandardCharsets.UTF_8.newDecoder());
 
   public static void main(String[] args) {
     try {
+      ResourceProfile.current().publish();
+
       ObjectMapper objectMapper = new ObjectMapper();
       objectMapper.registerModule(new JavaTimeModule());
       objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
       objectMapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
 
-      InMemoryPaymentRepository paymentRepository = new InMemoryPaymentRepository();
-      InMemoryPaymentQueueRepository dlqRepository = new InMemoryPaymentQueueRepository();
+      List<ProcessorRegistry.Endpoint> endpoints = ProcessorRegistry.parse(AppConfig.getProcessors());
+      InMemoryPaymentRepository paymentRepository = new InMemoryPaymentRepository(endpoints.size());
+      paymentRepository.start();
+      PaymentWriteAheadLog wal = null;
+      if (AppConfig.getWalDir() != null) {
+        wal = new PaymentWriteAheadLog(Path.of(AppConfig.getWalDir()), AppConfig.getWalSegmentBytes(),
+            PaymentWriteAheadLog.SyncPolicy.parse(AppConfig.getWalSyncPolicy()),
+            AppConfig.getWalSyncIntervalMs(), AppConfig.getWalTruncateIntervalMs());
+      }
+      InMemoryPaymentQueueRepository dlqRepository = new InMemoryPaymentQueueRepository(wal);
 
-      MyUltraHttpPaymentProcessorClient myUltraMainHttpPaymentProcessorClient = MyUltraHttpPaymentProcessorClient.fromAppConfig();
-      MyUltraHttpPaymentProcessorClient myUltraFallbackHttpPaymentProcessorClient =
-          new MyUltraHttpPaymentProcessorClient(AppConfig.getFallbackProcessorHost(), Integer.parseInt(AppConfig.getFallbackProcessorPort()),"/payments", 256);
       HostLockClient hostLockClient = new HostLockClient(objectMapper);
 
-      var mainHealthCheck = new ProcessorHealthCheckService(
-          AppConfig.getMainProcessorHost(), AppConfig.getMainProcessorPort());
-      var fallbackHealthCheck = new ProcessorHealthCheckService(
-          AppConfig.getFallbackProcessorHost(), AppConfig.getFallbackProcessorPort());
-      PaymentService paymentService = new PaymentService(
-          myUltraMainHttpPaymentProcessorClient, myUltraFallbackHttpPaymentProcessorClient, hostLockClient, paymentRepository, dlqRepository, mainHealthCheck, fallbackHealthCheck);
-      InMemoryPaymentDLQProcessor dlqProcessor = new InMemoryPaymentDLQProcessor(dlqRepository, paymentService);
-      PaymentController paymentController = new PaymentController(paymentService, dlqRepository);
+      SharedHealthState sharedHealth = AppConfig.getHealthFile() == null ? null
+          : new SharedHealthState(Path.of(AppConfig.getHealthFile()), endpoints.size(),
+              AppConfig.getHealthElectionIntervalMs());
+      ProcessorRegistry processors = new ProcessorRegistry(endpoints, sharedHealth);
+      CorrelationIdSet acceptedIds = null, recordedIds = null;
+      if (AppConfig.isDedupeEnabled()) {
+        acceptedIds = new CorrelationIdSet("accepted", AppConfig.getDedupeMemoryBytes(), AppConfig.getDedupeWindowMs());
+        recordedIds = new CorrelationIdSet("recorded", AppConfig.getDedupeMemoryBytes(), AppConfig.getDedupeWindowMs());
+      }
+      PaymentService paymentService = new PaymentService(processors, hostLockClient, paymentRepository, dlqRepository,
+          recordedIds);
+      AdmissionController admissionController = new AdmissionController(dlqRepository);
+      InMemoryPaymentDLQProcessor dlqProcessor = new InMemoryPaymentDLQProcessor(dlqRepository, paymentService, admissionController);
+      InlineFastPath inlineFastPath = new InlineFastPath(dlqRepository, paymentService, processors.primary().health,
+          admissionController);
+      PaymentController paymentController = new PaymentController(paymentService, dlqRepository, admissionController, inlineFastPath,
+          acceptedIds);
 
       Thread dlqThread = new Thread(dlqProcessor::start);
       dlqThread.setDaemon(true);
       dlqThread.start();
 
-      String socketPath = Optional.ofNullable(System.getenv("SOCKET"))
-          .orElse("/tmp/rinha.sock");
-      Path sock = Path.of(socketPath);
-      try { Files.deleteIfExists(sock); } catch (Exception ignore) {}
-      Files.createDirectories(sock.getParent());
-      try {
-        Files.setPosixFilePermissions(sock.getParent(),
-            PosixFilePermissions.fromString("rwxrwxrwx"));
-      } catch (Exception ignore) {}
-
-      try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
-        server.bind(UnixDomainSocketAddress.of(sock));
-        try {
-          Files.setPosixFilePermissions(sock,
-              PosixFilePermissions.fromString("rw-rw-rw-"));
-        } catch (Exception ignore) {}
-        System.out.println("UDS HTTP listening on " + sock);
-
-        ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor();
-
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-          try { server.close(); } catch (IOException ignore) {}
-          try { Files.deleteIfExists(sock); } catch (IOException ignore) {}
-        }));
-
-        while (true) {
-          SocketChannel ch = server.accept();
-          // multiplas reqs no channel aque
-          pool.submit(() -> handleKeepAlive(ch, paymentController, objectMapper, mainHealthCheck));
-        }
-      }
+      int recovered = dlqRepository.recover();
+      if (recovered > 0) System.out.println("WAL: " + recovered + " pagamentos recuperados");
+
+      TrafficCapture capture = AppConfig.getCaptureFile() == null ? null
+          : new TrafficCapture(Path.of(AppConfig.getCaptureFile()), AppConfig.getCaptureBufferSize());
+      if (capture != null) System.out.println("Capturando trafego em " + AppConfig.getCaptureFile());
+
+      ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor();
+      InboundConnections connections = new InboundConnections(AppConfig.getMaxConnections(),
+          AppConfig.getIdleTimeoutMs(), AppConfig.getHeaderTimeoutMs(), HDR_BUF_CAP, AppConfig.getBodyBufferBytes(),
+          AppConfig.getBodyBuffers());
+      // multiplas reqs no channel aqui; todos os listeners caem no mesmo handler
+      HttpListeners listeners = new HttpListeners(AppConfig.getListeners(), AppConfig.getTcpAcceptors(),
+          AppConfig.getTransport(), connections,
+          (conn, ch) -> pool.submit(() -> handleKeepAlive(conn, ch, paymentController, processors, capture)));
+
+      GracefulDrain drain = new GracefulDrain(dlqRepository, dlqProcessor, inlineFastPath, paymentService, hostLockClient,
+          AppConfig.getHandoffBatch(), wal != null);
+      PaymentWriteAheadLog walToClose = wal;
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        listeners.close();
+        // conexoes keep-alive abertas passam a receber 503; o backlog vai pro peer
+        paymentController.startDrain();
+        drain.run(AppConfig.getDrainTimeoutMs());
+        if (walToClose != null) walToClose.close();
+        if (capture != null) capture.close();
+      }));
+
+      listeners.start();
+      listeners.join();
     } catch (Exception e) {
       e.printStackTrace();
       System.exit(1);
     }
   }
 
-  private static void handleKeepAlive(SocketChannel ch, PaymentController controller, ObjectMapper mapper,
-      ProcessorHealthCheckService mainHealthCheck) {
+  private static void handleKeepAlive(InboundConnections.Connection conn, SocketChannel ch, PaymentController controller,
+      ProcessorRegistry processors, TrafficCapture capture) {
+    ProcessorHealthCheckService mainHealthCheck = processors.primary().health;
+    SummaryQuery query = new SummaryQuery();
     try {
       for (;;) {
-        ByteBuffer hdr = TL_HDR.get();
+        ByteBuffer hdr = conn.header();
         hdr.clear();
+        conn.awaitingRequest();
 
         int headerEnd = -1;
         while (hdr.position() < HDR_BUF_CAP) {
+          int scanFrom = Math.max(0, hdr.position() - 3); // so o que chegou agora (+3 de sobreposicao)
           int n = ch.read(hdr);
           if (n == -1) { ch.close(); return; }
-          headerEnd = indexOf(hdr, CRLFCRLF);
+          conn.receiving();
+          headerEnd = ByteScan.indexOfCrlfCrlf(hdr, scanFrom, hdr.position());
           if (headerEnd >= 0) break;
         }
         if (headerEnd < 0) { // header muito grande ou inválido
@@ -139,12 +194,58 @@ public class RinhaApplication {
         if (startsWith(hdr, 0, POST_PREFIX)) {
           // POST /payments
           int p = POST_PREFIX.length;
+          if (startsWith(hdr, p, PATH_ADMIN_CONFIG) && startsWith(hdr, p + PATH_ADMIN_CONFIG.length, HTTP_1_1)) {
+            int contentLength = parseContentLengthAscii(hdr, headerEnd);
+            byte[] form = contentLength < 0 || contentLength > ADMIN_MAX_BODY ? null
+                : readBody(conn, ch, hdr, headerEnd, contentLength);
+            if (form == null) {
+              writeStatus(ch, 400, "Bad Request", false);
+              ch.close();
+              return;
+            }
+            conn.received();
+            handleAdmin(ch, hdr, headerEnd, new String(form, StandardCharsets.UTF_8), !closeAfter);
+            if (closeAfter) { ch.close(); return; }
+            continue;
+          }
           if (!startsWith(hdr, p, PATH_PAYMENTS)) {
             writeStatus(ch, 404, "Not Found", !closeAfter);
             if (closeAfter) { ch.close(); }
             continue;
           }
           p += PATH_PAYMENTS.length;
+          if (startsWith(hdr, p, PURGE_SUFFIX)) {
+            if (!skipBody(conn, ch, hdr, headerEnd)) {
+              writeStatus(ch, 400, "Bad Request", false);
+              ch.close();
+              return;
+            }
+            conn.received();
+            // veio do peer: aplica so aqui, senao os dois ficariam repassando um pro outro
+            controller.purge(!headerHas(hdr, headerEnd, PURGE_ORIGIN));
+            write200Empty(ch, !closeAfter);
+            if (closeAfter) { ch.close(); return; }
+            continue;
+          }
+          if (startsWith(hdr, p, HANDOFF_SUFFIX)) {
+            // antes de ler o corpo: sem o segredo do peer nao aloca nada
+            if (!handoffAuthorized(ch, hdr, headerEnd)) {
+              ch.close();
+              return;
+            }
+            int contentLength = parseContentLengthAscii(hdr, headerEnd);
+            byte[] batch = contentLength < 0 || contentLength > AppConfig.getHandoffBatch() * HANDOFF_RECORD_MAX ? null
+                : readBody(conn, ch, hdr, headerEnd, contentLength);
+            if (batch == null) {
+              writeStatus(ch, 400, "Bad Request", false);
+              ch.close();
+              return;
+            }
+            conn.received();
+            handleHandoff(ch, controller, batch, !closeAfter);
+            if (closeAfter) { ch.close(); return; }
+            continue;
+          }
           if (!startsWith(hdr, p, HTTP_1_1)) {
             writeStatus(ch, 404, "Not Found", !closeAfter);
             if (closeAfter) { ch.close(); }
@@ -158,44 +259,26 @@ public class RinhaApplication {
             return;
           }
 
-          int bodyStart = headerEnd + CRLFCRLF.length;
-          int available = hdr.position() - bodyStart;
-          int remaining = Math.max(0, contentLength - Math.max(0, available));
-
-          byte[] bodyBytes = new byte[contentLength];
-          if (available > 0) {
-            int oldLimit = hdr.limit();
-            hdr.limit(hdr.position());
-            hdr.position(bodyStart);
-            int toCopy = Math.min(available, contentLength);
-            hdr.get(bodyBytes, 0, toCopy);
-            hdr.limit(oldLimit);
-          }
-
-          int offset = Math.max(0, available);
-          if (remaining > 0) {
-            ByteBuffer bodyBuf = TL_BODY.get();
-            while (remaining > 0) {
-              bodyBuf.clear();
-              int read = ch.read(bodyBuf);
-              if (read <= 0) break;
-              bodyBuf.flip();
-              int chunk = Math.min(read, remaining);
-              bodyBuf.get(bodyBytes, offset, chunk);
-              offset += chunk;
-              remaining -= chunk;
-            }
-            if (remaining != 0) {
-              writeStatus(ch, 400, "Bad Request", false);
-              ch.close();
-              return;
-            }
+          byte[] bodyBytes = readBody(conn, ch, hdr, headerEnd, contentLength);
+          if (bodyBytes == null) {
+            writeStatus(ch, 400, "Bad Request", false);
+            ch.close();
+            return;
           }
 
+          conn.received();
+          if (capture != null) capture.record(TrafficCapture.POST, "/payments", bodyBytes);
           String bodyStr = decodeUtf8Once(bodyBytes, contentLength);
 
-          write200Empty(ch, !closeAfter);
-          controller.processPayment(bodyStr);
+          // enfileira (e grava no WAL) antes do 200: so confirmamos o que ja esta registrado
+          boolean keep = !closeAfter;
+          controller.processPayment(bodyStr, verdict -> {
+            switch (verdict) {
+              case ADMIT -> write200Empty(ch, keep);
+              case TOO_MANY_REQUESTS -> writeRetryAfter(ch, 429, "Too Many Requests", controller.retryAfterSeconds(), keep);
+              case UNAVAILABLE -> writeRetryAfter(ch, 503, "Service Unavailable", controller.retryAfterSeconds(), keep);
+            }
+          });
 
           if (closeAfter) { ch.close(); return; }
           continue;
@@ -203,46 +286,64 @@ public class RinhaApplication {
 
         if (startsWith(hdr, 0, GET_PREFIX)) {
           // GET path
+          conn.received();
           int p = GET_PREFIX.length;
-          int space = indexOfByte(hdr, (byte)' ', p, headerEnd);
+          int space = ByteScan.indexOf(hdr, (byte)' ', p, headerEnd);
           if (space < 0) {
             writeStatus(ch, 400, "Bad Request", false);
             ch.close(); return;
           }
-          String target = asciiSlice(hdr, p, space); // paths tipo /payments-summary?from=...&to=...
-
-          if (target.startsWith("/payments-summary-lock")) {
-            mainHealthCheck.setDown();
-            String qs = null; int qidx = target.indexOf('?');
-            if (qidx >= 0) { qs = target.substring(qidx + 1); }
-            var params = parseQuery(qs);
-            Instant from = params.containsKey("from")
-                ? Instant.parse(params.get("from")).truncatedTo(ChronoUnit.MILLIS)
-                : Instant.now().minus(150, ChronoUnit.SECONDS).truncatedTo(ChronoUnit.MILLIS);
-            Instant to   = params.containsKey("to")
-                ? Instant.parse(params.get("to")).truncatedTo(ChronoUnit.MILLIS)
-                : Instant.now().truncatedTo(ChronoUnit.MILLIS);
-            var result = controller.getPaymentSummaryLock(from, to);
-            byte[] json = mapper.writeValueAsBytes(result);
-            writeJson(ch, json, !closeAfter);
+          if (startsWith(hdr, p, PATH_SUMMARY)) {
+            int q = p + PATH_SUMMARY.length;
+            if (startsWith(hdr, q, SERIES_SUFFIX) && (q + SERIES_SUFFIX.length == space
+                || hdr.get(q + SERIES_SUFFIX.length) == '?')) {
+              if (capture != null) capture.record(TrafficCapture.GET, asciiSlice(hdr, p, space), null);
+              q += SERIES_SUFFIX.length;
+              long now = MillisClock.millis();
+              if (!query.parse(hdr, q, space, now - DEFAULT_WINDOW_MS, now)) {
+                parseQuerySlow(query, q < space ? asciiSlice(hdr, q + 1, space) : null, now);
+              }
+              long step = query.step == 0 ? DEFAULT_SERIES_STEP_MS : query.step;
+              if (step <= 0 || query.from > query.to
+                  || (query.to - query.from) / step >= AppConfig.getSeriesMaxBuckets()) {
+                writeStatus(ch, 400, "Bad Request", !closeAfter);
+                if (closeAfter) { ch.close(); return; }
+                continue;
+              }
+              writeSeries(ch, controller, processors, query.from, query.to, step, !closeAfter);
+              if (closeAfter) { ch.close(); return; }
+              continue;
+            }
+            boolean lock = startsWith(hdr, q, LOCK_SUFFIX);
+            if (lock) q += LOCK_SUFFIX.length;
+            if (q == space || hdr.get(q) == '?') {
+              if (capture != null) capture.record(TrafficCapture.GET, asciiSlice(hdr, p, space), null);
+              mainHealthCheck.setDown("summary");
+              long now = MillisClock.millis();
+              if (!query.parse(hdr, q, space, now - DEFAULT_WINDOW_MS, now)) {
+                parseQuerySlow(query, q < space ? asciiSlice(hdr, q + 1, space) : null, now);
+              }
+              var result = lock ? controller.getPaymentSummaryLock(query.from, query.to)
+                  : controller.getPaymentSummary(query.from, query.to);
+              byte[] json = processors.summaryJson(result);
+              writeJson(ch, json, !closeAfter);
+              if (closeAfter) { ch.close(); return; }
+              continue;
+            }
+          }
+
+          String target = asciiSlice(hdr, p, space);
+          if (capture != null) capture.record(TrafficCapture.GET, target, null);
+
+          if (target.equals("/admin/config")) {
+            handleAdmin(ch, hdr, headerEnd, null, !closeAfter);
             if (closeAfter) { ch.close(); return; }
             continue;
           }
 
-          if (target.startsWith("/payments-summary")) {
-            mainHealthCheck.setDown();
-            String qs = null; int qidx = target.indexOf('?');
-            if (qidx >= 0) { qs = target.substring(qidx + 1); }
-            var params = parseQuery(qs);
-            Instant from = params.containsKey("from")
-                ? Instant.parse(params.get("from")).truncatedTo(ChronoUnit.MILLIS)
-                : Instant.now().minus(150, ChronoUnit.SECONDS).truncatedTo(ChronoUnit.MILLIS);
-            Instant to   = params.containsKey("to")
-                ? Instant.parse(params.get("to")).truncatedTo(ChronoUnit.MILLIS)
-                : Instant.now().truncatedTo(ChronoUnit.MILLIS);
-            var result = controller.getPaymentSummary(from, to);
-            byte[] json = mapper.writeValueAsBytes(result);
-            writeJson(ch, json, !closeAfter);
+          if (target.equals("/metrics")) {
+            byte[] text = MetricsRegistry.global().scrape().getBytes(StandardCharsets.US_ASCII);
+            writeBody(ch, "text/plain; version=0.0.4", text, !closeAfter);
             if (closeAfter) { ch.close(); return; }
             continue;
           }
@@ -258,12 +359,118 @@ public class RinhaApplication {
         ch.close(); return;
       }
     } catch (Throwable t) {
-      try { writeStatus(ch, 500, "Internal Server Error", false); } catch (IOException ignore) {}
-      try { ch.close(); } catch (IOException ignore) {}
+      if (!conn.reaped()) {
+        try { writeStatus(ch, 500, "Internal Server Error", false); } catch (IOException ignore) {}
+      }
+    } finally {
+      conn.close();
     }
   }
 
-  private static boolean headerHasClose(ByteBuffer hdr, int headerEnd) {
+  /** Corpo de {@code contentLength} bytes: o que ja veio junto com o header e o resto do canal. null se faltou. */
+  private static byte[] readBody(InboundConnections.Connection conn, SocketChannel ch, ByteBuffer hdr, int headerEnd,
+      int contentLength) throws IOException {
+    int bodyStart = headerEnd + CRLFCRLF.length;
+    int available = hdr.position() - bodyStart;
+    int remaining = Math.max(0, contentLength - Math.max(0, available));
+
+    byte[] bodyBytes = new byte[contentLength];
+    if (available > 0) {
+      int oldLimit = hdr.limit();
+      hdr.limit(hdr.position());
+      hdr.position(bodyStart);
+      int toCopy = Math.min(available, contentLength);
+      hdr.get(bodyBytes, 0, toCopy);
+      hdr.limit(oldLimit);
+    }
+
+    int offset = Math.max(0, available);
+    if (remaining > 0) {
+      ByteBuffer bodyBuf = conn.borrowBody();
+      try {
+        while (remaining > 0) {
+          bodyBuf.clear();
+          int read = ch.read(bodyBuf);
+          if (read <= 0) break;
+          bodyBuf.flip();
+          int chunk = Math.min(read, remaining);
+          bodyBuf.get(bodyBytes, offset, chunk);
+          offset += chunk;
+          remaining -= chunk;
+        }
+      } finally {
+        conn.returnBody(bodyBuf);
+      }
+      if (remaining != 0) return null;
+    }
+    return bodyBytes;
+  }
+
+  /**
+   * /admin/config: GET devolve o snapshot do {@link RuntimeConfig}, POST aplica um form
+   * {@code RINHA_X=valor&...} (tudo ou nada). Exige o header X-Rinha-Admin-Token; sem
+   * RINHA_ADMIN_TOKEN configurado a rota responde 404.
+   */
+  private static void handleAdmin(SocketChannel ch, ByteBuffer hdr, int headerEnd, String form, boolean keep)
+      throws IOException {
+    String token = AppConfig.getAdminToken();
+    if (token == null) {
+      writeStatus(ch, 404, "Not Found", keep);
+      return;
+    }
+    String given = headerValue(hdr, headerEnd, ADMIN_TOKEN);
+    if (given == null || !MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+        given.getBytes(StandardCharsets.UTF_8))) {
+      writeStatus(ch, 401, "Unauthorized", keep);
+      return;
+    }
+    if (form == null) {
+      writeJson(ch, RuntimeConfig.json().getBytes(StandardCharsets.US_ASCII), keep);
+      return;
+    }
+    try {
+      String applied = RuntimeConfig.update(parseQuery(form));
+      System.out.println("Runtime config updated: " + applied);
+      writeJson(ch, applied.getBytes(StandardCharsets.US_ASCII), keep);
+    } catch (IllegalArgumentException e) {
+      writeResponse(ch, "400 Bad Request", "text/plain", e.getMessage().getBytes(StandardCharsets.UTF_8), keep);
+    }
+  }
+
+  /** Le e descarta o corpo (Content-Length) de uma rota que nao usa o corpo. */
+  private static boolean skipBody(InboundConnections.Connection conn, SocketChannel ch, ByteBuffer hdr, int headerEnd)
+      throws IOException {
+    int contentLength = Math.max(0, parseContentLengthAscii(hdr, headerEnd));
+    int remaining = contentLength - Math.max(0, hdr.position() - headerEnd - CRLFCRLF.length);
+    if (remaining <= 0) return true;
+    ByteBuffer bodyBuf = conn.borrowBody();
+    try {
+      while (remaining > 0) {
+        bodyBuf.clear();
+        int read = ch.read(bodyBuf);
+        if (read <= 0) return false;
+        remaining -= read;
+      }
+      return true;
+    } finally {
+      conn.returnBody(bodyBuf);
+    }
+  }
+
+  private static boolean headerHas(ByteBuffer hdr, int headerEnd, String lowerCaseName) {
+    return asciiSlice(hdr, 0, headerEnd).toLowerCase().contains("\n" + lowerCaseName + ":");
+  }
+
+  private static String headerValue(ByteBuffer hdr, int headerEnd, String lowerCaseName) {
+    String head = asciiSlice(hdr, 0, headerEnd);
+    int idx = head.toLowerCase().indexOf("\n" + lowerCaseName + ":");
+    if (idx < 0) return null;
+    int start = idx + lowerCaseName.length() + 2;
+    int end = head.indexOf('\r', start);
+    return head.substring(start, end < 0 ? head.length() : end).trim();
+  }
+
+  static boolean headerHasClose(ByteBuffer hdr, int headerEnd) {
     String head = asciiSlice(hdr, 0, headerEnd).toLowerCase();
     int idx = head.indexOf("\nconnection:");
     if (idx < 0) return false;
@@ -279,26 +486,96 @@ public class RinhaApplication {
   }
 
   private static void write200Empty(SocketChannel ch, boolean keep) throws IOException {
-    String h = "HTTP/1.1 200 OK\r\n"
+    // duplicate so para ter posicao propria; os bytes ficam off-heap, write sem copia temporaria
+    ByteBuffer b = (keep ? OK_EMPTY_KEEP : OK_EMPTY_CLOSE).duplicate();
+    while (b.hasRemaining()) ch.write(b);
+  }
+
+  private static ByteBuffer directConstant(String s) {
+    byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+    return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip().asReadOnlyBuffer();
+  }
+
+  private static void writeStatus(SocketChannel ch, int code, String reason, boolean keep) throws IOException {
+    String h = "HTTP/1.1 " + code + " " + reason + "\r\n"
         + "Content-Length: 0\r\n"
-        + (keep ? "Connection: keep-alive\r\nKeep-Alive: timeout=5\r\n" : "Connection: close\r\n")
+        + (keep ? KEEP_ALIVE : "Connection: close\r\n")
         + "\r\n";
     writeBytes(ch, h.getBytes(StandardCharsets.US_ASCII));
   }
 
-  private static void writeStatus(SocketChannel ch, int code, String reason, boolean keep) throws IOException {
+  private static void writeRetryAfter(SocketChannel ch, int code, String reason, int retryAfterSeconds, boolean keep)
+      throws IOException {
     String h = "HTTP/1.1 " + code + " " + reason + "\r\n"
+        + "Retry-After: " + retryAfterSeconds + "\r\n"
         + "Content-Length: 0\r\n"
-        + (keep ? "Connection: keep-alive\r\nKeep-Alive: timeout=5\r\n" : "Connection: close\r\n")
+        + (keep ? KEEP_ALIVE : "Connection: close\r\n")
         + "\r\n";
     writeBytes(ch, h.getBytes(StandardCharsets.US_ASCII));
   }
 
   private static void writeJson(SocketChannel ch, byte[] body, boolean keep) throws IOException {
-    byte[] head = ("HTTP/1.1 200 OK\r\n"
-        + "Content-Type: application/json\r\n"
+    writeBody(ch, "application/json", body, keep);
+  }
+
+  /** Um bucket por vez no chunk corrente; o corpo inteiro nunca fica em memoria. */
+  private static void writeSeries(SocketChannel ch, PaymentController controller, ProcessorRegistry processors,
+      long from, long to, long step, boolean keep) throws IOException {
+    ChunkedResponse out = new ChunkedResponse(ch, "application/json", keep ? KEEP_ALIVE : "Connection: close\r\n",
+        SERIES_CHUNK);
+    StringBuilder sb = out.buffer();
+    sb.append("{\"from\":\"").append(IsoTime.format(from)).append("\",\"to\":\"").append(IsoTime.format(to))
+        .append("\",\"step\":").append(step).append(",\"buckets\":[");
+    boolean[] first = {true};
+    controller.summarySeries(from, to, step, (start, totals, latency) -> {
+      if (!first[0]) sb.append(',');
+      first[0] = false;
+      processors.appendSeriesBucket(sb, start, totals, latency);
+      out.maybeFlush();
+    });
+    sb.append("]}");
+    out.finish();
+  }
+
+  private static void writeBody(SocketChannel ch, String contentType, byte[] body, boolean keep) throws IOException {
+    writeResponse(ch, "200 OK", contentType, body, keep);
+  }
+
+  /** 404 sem RINHA_HANDOFF_TOKEN, 401 com token errado; as duas respostas fecham a conexao. */
+  private static boolean handoffAuthorized(SocketChannel ch, ByteBuffer hdr, int headerEnd) throws IOException {
+    String token = AppConfig.getHandoffToken();
+    if (token == null) {
+      writeStatus(ch, 404, "Not Found", false);
+      return false;
+    }
+    String given = headerValue(hdr, headerEnd, HANDOFF_TOKEN);
+    if (given == null || !MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+        given.getBytes(StandardCharsets.UTF_8))) {
+      writeStatus(ch, 401, "Unauthorized", false);
+      return false;
+    }
+    return true;
+  }
+
+  private static void handleHandoff(SocketChannel ch, PaymentController controller, byte[] batch, boolean keep)
+      throws IOException {
+    try {
+      int queued = controller.ingestHandoff(batch);
+      writeResponse(ch, "200 OK", "application/json",
+          ("{\"queued\":" + queued + "}").getBytes(StandardCharsets.US_ASCII), keep);
+    } catch (IllegalStateException e) {
+      writeStatus(ch, 503, "Service Unavailable", keep);
+    } catch (IllegalArgumentException e) {
+      writeResponse(ch, "400 Bad Request", "text/plain", e.getMessage().getBytes(StandardCharsets.UTF_8), keep);
+    }
+  }
+
+  private static void writeResponse(SocketChannel ch, String status, String contentType, byte[] body, boolean keep)
+      throws IOException {
+    byte[] head = ("HTTP/1.1 " + status + "\r\n"
+        + "Content-Type: " + contentType + "\r\n"
         + "Content-Length: " + body.length + "\r\n"
-        + (keep ? "Connection: keep-alive\r\nKeep-Alive: timeout=5\r\n" : "Connection: close\r\n")
+        + (keep ? KEEP_ALIVE : "Connection: close\r\n")
         + "\r\n").getBytes(StandardCharsets.US_ASCII);
     ByteBuffer[] arr = new ByteBuffer[]{ByteBuffer.wrap(head), ByteBuffer.wrap(body)};
     long total = head.length + body.length;
@@ -306,34 +583,18 @@ public class RinhaApplication {
     while (written < total) written += ch.write(arr);
   }
 
-  private static int indexOf(ByteBuffer buf, byte[] pat) {
-    int lim = buf.position();
-    if (lim < pat.length) return -1;
-    outer: for (int i = 0; i <= lim - pat.length; i++) {
-      for (int j = 0; j < pat.length; j++) if (buf.get(i + j) != pat[j]) continue outer;
-      return i;
-    }
-    return -1;
-  }
-
-  private static int indexOfByte(ByteBuffer buf, byte b, int from, int toExclusive) {
-    int lim = Math.min(buf.position(), toExclusive);
-    for (int i = from; i < lim; i++) if (buf.get(i) == b) return i;
-    return -1;
-  }
-
   private static boolean startsWith(ByteBuffer buf, int off, byte[] what) {
     if (buf.position() < off + what.length) return false;
     for (int i = 0; i < what.length; i++) if (buf.get(off + i) != what[i]) return false;
     return true;
   }
 
-  private static int parseContentLengthAscii(ByteBuffer hdr, int headerEnd) {
+  static int parseContentLengthAscii(ByteBuffer hdr, int headerEnd) {
     int start = 0;
     int limit = headerEnd;
     while (start < limit) {
-      int nl = start;
-      while (nl < limit && hdr.get(nl) != '\n') nl++;
+      int nl = ByteScan.indexOf(hdr, (byte) '\n', start, limit);
+      if (nl < 0) nl = limit;
       int lineStart = start;
       int lineEnd = (nl > start && hdr.get(nl - 1) == '\r') ? nl - 1 : nl;
 
@@ -390,7 +651,20 @@ public class RinhaApplication {
     return new String(tmp, StandardCharsets.US_ASCII);
   }
 
-  private static Map<String,String> parseQuery(String qs) {
+  /** Caminho antigo (URLDecoder + Instant.parse) para o que o {@link SummaryQuery} recusa. */
+  private static void parseQuerySlow(SummaryQuery query, String qs, long now) {
+    var params = parseQuery(qs);
+    query.from = params.containsKey("from")
+        ? Instant.parse(params.get("from")).truncatedTo(ChronoUnit.MILLIS).toEpochMilli()
+        : now - DEFAULT_WINDOW_MS;
+    query.to = params.containsKey("to")
+        ? Instant.parse(params.get("to")).truncatedTo(ChronoUnit.MILLIS).toEpochMilli()
+        : now;
+    String step = params.get("step");
+    query.step = step == null ? 0 : SummaryQuery.parseStep(step.getBytes(StandardCharsets.US_ASCII), 0, step.length());
+  }
+
+  static Map<String,String> parseQuery(String qs) {
     Map<String,String> m = new HashMap<>();
     if (qs == null || qs.isEmpty()) return m;
     int i = 0, n = qs.length();
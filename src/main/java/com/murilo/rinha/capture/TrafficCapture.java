@@ -0,0 +1,152 @@
+package com.murilo.rinha.capture;
+
+import com.murilo.rinha.metrics.Counter;
+import com.murilo.rinha.metrics.MetricsRegistry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Grava as requisicoes recebidas num log binario para replay ({@link TrafficReplayer}).
+ *
+ * No caminho quente e so um offer numa fila limitada; se a fila enche o registro e
+ * descartado e contado, nunca bloqueia o request. Uma thread de fundo serializa.
+ *
+ * Formato: cabecalho [8 bytes MAGIC][long epochMillis do inicio], depois registros
+ * [long nanos desde o inicio][byte metodo][short len][target ASCII][int len][body].
+ */
+public final class TrafficCapture implements Closeable {
+
+  public static final byte GET = 1;
+  public static final byte POST = 2;
+
+  private static final byte[] MAGIC = "RNHCAP01".getBytes(StandardCharsets.US_ASCII);
+
+  public record CapturedRequest(long offsetNanos, byte method, String target, byte[] body) {}
+
+  private final BlockingQueue<CapturedRequest> pending;
+  private final DataOutputStream out;
+  private final long startNanos = System.nanoTime();
+  private final Thread writer;
+  private final Counter written;
+  private final Counter dropped;
+  private volatile boolean closed;
+
+  public TrafficCapture(Path file, int bufferedRequests) throws IOException {
+    if (file.getParent() != null) Files.createDirectories(file.getParent());
+    this.pending = new ArrayBlockingQueue<>(bufferedRequests);
+    this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+    out.write(MAGIC);
+    out.writeLong(System.currentTimeMillis());
+
+    MetricsRegistry m = MetricsRegistry.global();
+    this.written = m.counter("rinha_capture_total", "Captured requests", "result", "written");
+    this.dropped = m.counter("rinha_capture_total", "Captured requests", "result", "dropped");
+    this.writer = Thread.ofPlatform().daemon().name("traffic-capture").start(this::runWriter);
+  }
+
+  /** {@code body} nao e copiado: quem chama nao pode reutilizar o array. */
+  public void record(byte method, String target, byte[] body) {
+    if (!pending.offer(new CapturedRequest(System.nanoTime() - startNanos, method, target, body))) dropped.inc();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    writer.interrupt();
+    try {
+      writer.join(2000);
+    } catch (InterruptedException ignore) {
+    }
+  }
+
+  private void runWriter() {
+    List<CapturedRequest> batch = new ArrayList<>(1024);
+    try {
+      while (!closed) {
+        try {
+          batch.add(pending.take());
+        } catch (InterruptedException e) {
+          break;
+        }
+        pending.drainTo(batch, 1023);
+        writeAll(batch);
+        // fila vazia: flush, para o arquivo nao ficar atrasado em trafego baixo
+        if (pending.isEmpty()) out.flush();
+      }
+      pending.drainTo(batch);
+      writeAll(batch);
+      out.close();
+    } catch (IOException e) {
+      System.err.println("Traffic capture stopped: " + e);
+      closed = true;
+    }
+  }
+
+  private void writeAll(List<CapturedRequest> batch) throws IOException {
+    for (CapturedRequest r : batch) {
+      byte[] target = r.target().getBytes(StandardCharsets.US_ASCII);
+      out.writeLong(r.offsetNanos());
+      out.writeByte(r.method());
+      out.writeShort(target.length);
+      out.write(target);
+      byte[] body = r.body();
+      out.writeInt(body == null ? 0 : body.length);
+      if (body != null) out.write(body);
+    }
+    written.add(batch.size());
+    batch.clear();
+  }
+
+  /** Leitura sequencial de uma captura. */
+  public static final class Reader implements Closeable {
+
+    private final DataInputStream in;
+    private final long startEpochMillis;
+
+    public Reader(Path file) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+      byte[] magic = new byte[MAGIC.length];
+      in.readFully(magic);
+      if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not a traffic capture: " + file);
+      this.startEpochMillis = in.readLong();
+    }
+
+    public long startEpochMillis() {
+      return startEpochMillis;
+    }
+
+    /** @return o proximo registro, ou null no fim (inclusive registro truncado por crash) */
+    public CapturedRequest next() throws IOException {
+      try {
+        long offset = in.readLong();
+        byte method = in.readByte();
+        byte[] target = new byte[in.readUnsignedShort()];
+        in.readFully(target);
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        return new CapturedRequest(offset, method, new String(target, StandardCharsets.US_ASCII), body);
+      } catch (EOFException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
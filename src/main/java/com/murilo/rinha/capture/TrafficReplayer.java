@@ -0,0 +1,197 @@
+package com.murilo.rinha.capture;
+
+import com.murilo.rinha.capture.TrafficCapture.CapturedRequest;
+import com.murilo.rinha.metrics.Histogram;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reenvia uma captura do {@link TrafficCapture} contra uma instancia rodando.
+ *
+ * <pre>
+ * java -cp app.jar com.murilo.rinha.capture.TrafficReplayer capture.bin \
+ *   [--socket /tmp/rinha.sock | --tcp localhost:9999] [--speed 1|N|max] [--concurrency 256] [--rewrite-ids]
+ * </pre>
+ *
+ * Com --speed N os intervalos originais sao divididos por N; com max os requests saem
+ * assim que ha vaga em --concurrency. A latencia e medida do horario agendado, entao
+ * atraso do proprio replayer aparece no resultado. --rewrite-ids troca cada
+ * correlationId por um UUID novo, para repetir contra processadores que ja viram os ids.
+ */
+public final class TrafficReplayer {
+
+  private final SocketAddress target;
+  private final double speed;
+  private final Semaphore permits;
+  private final boolean rewriteIds;
+  private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<>();
+
+  private final Histogram latency = new Histogram();
+  private final LongAdder ok = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+
+  TrafficReplayer(SocketAddress target, double speed, int concurrency, boolean rewriteIds) {
+    this.target = target;
+    this.speed = speed;
+    this.permits = new Semaphore(concurrency);
+    this.rewriteIds = rewriteIds;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 0) {
+      System.err.println("usage: TrafficReplayer <capture> [--socket path | --tcp host:port] [--speed 1|N|max]"
+          + " [--concurrency N] [--rewrite-ids]");
+      System.exit(2);
+    }
+    Path file = Path.of(args[0]);
+    SocketAddress target = UnixDomainSocketAddress.of("/tmp/rinha.sock");
+    double speed = 1;
+    int concurrency = 256;
+    boolean rewriteIds = false;
+    for (int i = 1; i < args.length; i++) {
+      switch (args[i]) {
+        case "--socket" -> target = UnixDomainSocketAddress.of(args[++i]);
+        case "--tcp" -> {
+          String[] hp = args[++i].split(":");
+          target = new InetSocketAddress(hp[0], Integer.parseInt(hp[1]));
+        }
+        case "--speed" -> {
+          String s = args[++i];
+          speed = s.equals("max") ? 0 : Double.parseDouble(s.endsWith("x") ? s.substring(0, s.length() - 1) : s);
+        }
+        case "--concurrency" -> concurrency = Integer.parseInt(args[++i]);
+        case "--rewrite-ids" -> rewriteIds = true;
+        default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+    new TrafficReplayer(target, speed, concurrency, rewriteIds).replay(file);
+  }
+
+  void replay(Path file) throws IOException, InterruptedException {
+    long sent = 0;
+    long start = System.nanoTime();
+    try (TrafficCapture.Reader reader = new TrafficCapture.Reader(file)) {
+      CapturedRequest r;
+      while ((r = reader.next()) != null) {
+        long scheduled = speed > 0 ? start + (long) (r.offsetNanos() / speed) : System.nanoTime();
+        long wait = scheduled - System.nanoTime();
+        if (wait > 0) LockSupport.parkNanos(wait);
+        permits.acquire();
+        CapturedRequest req = r;
+        Thread.ofVirtual().start(() -> send(req, scheduled));
+        sent++;
+      }
+    }
+    // espera os ultimos em voo
+    while (ok.sum() + rejected.sum() + errors.sum() < sent) Thread.sleep(10);
+    double elapsed = (System.nanoTime() - start) / 1e9;
+    for (Connection c : idle) c.close();
+
+    System.out.printf("replayed %d requests in %.1fs (%.0f req/s): 2xx=%d non-2xx=%d errors=%d%n",
+        sent, elapsed, sent / elapsed, ok.sum(), rejected.sum(), errors.sum());
+    System.out.printf("latency p50=%.2fms p99=%.2fms p999=%.2fms%n", latency.quantile(0.5) / 1e6,
+        latency.quantile(0.99) / 1e6, latency.quantile(0.999) / 1e6);
+  }
+
+  private void send(CapturedRequest r, long scheduledNanos) {
+    Connection c = idle.poll();
+    try {
+      if (c == null) c = new Connection(target);
+      int status = c.exchange(request(r));
+      latency.recordSince(scheduledNanos);
+      if (status >= 200 && status < 300) ok.increment(); else rejected.increment();
+      if (c.reusable) idle.offer(c); else c.close();
+    } catch (IOException e) {
+      errors.increment();
+      if (c != null) c.close();
+    } finally {
+      permits.release();
+    }
+  }
+
+  private byte[] request(CapturedRequest r) {
+    byte[] body = r.body();
+    if (rewriteIds && body.length > 0) {
+      String json = new String(body, StandardCharsets.UTF_8);
+      int k = json.indexOf("\"correlationId\"");
+      int open = k < 0 ? -1 : json.indexOf('"', json.indexOf(':', k) + 1);
+      int close = open < 0 ? -1 : json.indexOf('"', open + 1);
+      if (close > 0) {
+        body = (json.substring(0, open + 1) + UUID.randomUUID() + json.substring(close)).getBytes(StandardCharsets.UTF_8);
+      }
+    }
+    String head = r.method() == TrafficCapture.POST
+        ? "POST " + r.target() + " HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\n"
+            + "Content-Length: " + body.length + "\r\n\r\n"
+        : "GET " + r.target() + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+    byte[] h = head.getBytes(StandardCharsets.US_ASCII);
+    if (r.method() != TrafficCapture.POST) return h;
+    byte[] out = new byte[h.length + body.length];
+    System.arraycopy(h, 0, out, 0, h.length);
+    System.arraycopy(body, 0, out, h.length, body.length);
+    return out;
+  }
+
+  /** HTTP/1.1 keep-alive, um request por vez; so le status e descarta o corpo. */
+  private static final class Connection implements Closeable {
+    private final SocketChannel ch;
+    private final ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+    boolean reusable = true;
+
+    Connection(SocketAddress target) throws IOException {
+      this.ch = target instanceof UnixDomainSocketAddress
+          ? SocketChannel.open(StandardProtocolFamily.UNIX)
+          : SocketChannel.open();
+      ch.connect(target);
+      if (!(target instanceof UnixDomainSocketAddress)) ch.socket().setTcpNoDelay(true);
+    }
+
+    int exchange(byte[] request) throws IOException {
+      ByteBuffer out = ByteBuffer.wrap(request);
+      while (out.hasRemaining()) ch.write(out);
+      in.clear();
+      int headerEnd;
+      while ((headerEnd = headerEnd()) < 0) {
+        if (!in.hasRemaining() || ch.read(in) < 0) throw new IOException("Connection closed");
+      }
+      String head = new String(in.array(), 0, headerEnd, StandardCharsets.US_ASCII).toLowerCase();
+      int status = Integer.parseInt(head.substring(9, 12));
+      int cl = head.indexOf("\ncontent-length:");
+      int len = cl < 0 ? 0 : Integer.parseInt(head.substring(cl + 16, head.indexOf('\r', cl)).trim());
+      int total = headerEnd + 4 + len;
+      while (in.position() < total) {
+        if (!in.hasRemaining() || ch.read(in) < 0) throw new IOException("Connection closed");
+      }
+      reusable = !head.contains("\nconnection: close");
+      return status;
+    }
+
+    private int headerEnd() {
+      byte[] b = in.array();
+      for (int i = 3; i < in.position(); i++) {
+        if (b[i - 3] == '\r' && b[i - 2] == '\n' && b[i - 1] == '\r' && b[i] == '\n') return i - 3;
+      }
+      return -1;
+    }
+
+    @Override
+    public void close() {
+      try { ch.close(); } catch (IOException ignore) {}
+    }
+  }
+}
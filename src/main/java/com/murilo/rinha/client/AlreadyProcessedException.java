@@ -0,0 +1,11 @@
+package com.murilo.rinha.client;
+
+/** O processador ja tem esse correlationId (422): a cobranca ja aconteceu numa tentativa anterior. */
+public class AlreadyProcessedException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  public AlreadyProcessedException(String message) {
+    super(message, null, false, false);
+  }
+}
@@ -2,6 +2,12 @@ package com.murilo.rinha.client;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.murilo.rinha.config.AppConfig;
+import com.murilo.rinha.config.DeadlineExceededException;
+import com.murilo.rinha.config.DeadlineWatchdog;
+import com.murilo.rinha.config.IsoTime;
+import com.murilo.rinha.metrics.Histogram;
+import com.murilo.rinha.metrics.MetricsRegistry;
 import java.net.UnixDomainSocketAddress;
 
 import java.io.BufferedInputStream;
@@ -13,13 +19,17 @@ import java.nio.channels.Channels;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.time.Instant;
 import java.util.*;
 
 public class HostLockClient {
 
+    public static final String PURGE_ORIGIN_HEADER = "X-Rinha-Purge-Origin";
+    public static final String HANDOFF_TOKEN_HEADER = "X-Rinha-Handoff-Token";
+
     private final ObjectMapper mapper;
     private final Path peerSocket;
+    private final Histogram peerSummaryTime = MetricsRegistry.global().histogram("rinha_summary_peer_seconds",
+        "Round trip of the peer summary leg over UDS");
 
     public HostLockClient(ObjectMapper mapper) {
         this.mapper = mapper;
@@ -28,50 +38,96 @@ public class HostLockClient {
         this.peerSocket = Path.of(uds);
     }
 
-    public Map<String, Object> getSummary(Instant from, Instant to) {
-        String path = "/payments-summary-lock?from=%s&to=%s".formatted(from, to);
+    public Map<String, Object> getSummary(long from, long to) {
+        String path = "/payments-summary-lock?from=" + IsoTime.format(from) + "&to=" + IsoTime.format(to);
+        long start = System.nanoTime();
         try {
-            String body = udsGet(peerSocket, path);
+            String body = udsRequest(peerSocket, "GET", path, "");
             return mapper.readValue(body, new TypeReference<>() {});
         } catch (IOException e) {
             throw new RuntimeException("UDS request failed", e);
+        } finally {
+            peerSummaryTime.recordSince(start);
         }
     }
 
-    private static String udsGet(Path socketPath, String pathWithQuery) throws IOException {
-        UnixDomainSocketAddress addr = UnixDomainSocketAddress.of(socketPath);
+    /**
+     * Repassa o purge ao peer. O header de origem impede que ele repasse de volta.
+     */
+    public void purge() {
+        try {
+            udsRequest(peerSocket, "POST", "/payments-purge", PURGE_ORIGIN_HEADER + ": peer\r\nContent-Length: 0\r\n");
+        } catch (IOException e) {
+            throw new RuntimeException("UDS purge failed", e);
+        }
+    }
+
+    /**
+     * Entrega um lote de pagamentos da fila ao peer no shutdown (formato em {@code GracefulDrain}).
+     * So retorna se o peer enfileirou o lote inteiro; peer travado estoura o prazo da drenagem.
+     */
+    public void handoff(byte[] batch, long deadlineNanos) {
+        String token = AppConfig.getHandoffToken();
+        if (token == null) throw new IllegalStateException("RINHA_HANDOFF_TOKEN not set");
         try (SocketChannel ch = SocketChannel.open(StandardProtocolFamily.UNIX)) {
-            ch.connect(addr);
-            var out = new BufferedOutputStream(Channels.newOutputStream(ch));
-            var in  = new BufferedInputStream(Channels.newInputStream(ch));
-
-            String req = "GET " + pathWithQuery + " HTTP/1.1\r\n" +
-                "Host: localhost\r\n" +
-                "Connection: close\r\n\r\n";
-            out.write(req.getBytes(StandardCharsets.ISO_8859_1));
-            out.flush();
-
-            // Status line
-            String statusLine = readLine(in);
-            if (statusLine == null || !statusLine.startsWith("HTTP/1.1 ")) {
-                throw new IOException("Invalid response");
-            }
-            int status = parseStatus(statusLine);
-
-            // Headers
-            Map<String, String> headers = new HashMap<>();
-            String line;
-            while ((line = readLine(in)) != null && !line.isEmpty()) {
-                int idx = line.indexOf(':');
-                if (idx > 0) headers.put(line.substring(0, idx).trim().toLowerCase(Locale.ROOT),
-                    line.substring(idx + 1).trim());
+            DeadlineWatchdog.Guard guard = new DeadlineWatchdog.Guard(ch);
+            DeadlineWatchdog.shared().arm(guard, deadlineNanos);
+            try {
+                exchange(ch, peerSocket, "POST", "/payments-handoff", HANDOFF_TOKEN_HEADER + ": " + token
+                    + "\r\nContent-Type: application/octet-stream\r\nContent-Length: " + batch.length + "\r\n", batch);
+            } catch (IOException e) {
+                if (guard.expired()) throw new DeadlineExceededException("Deadline exceeded handing off to the peer");
+                throw e;
+            } finally {
+                DeadlineWatchdog.shared().disarm(guard);
             }
+        } catch (IOException e) {
+            throw new RuntimeException("UDS handoff failed", e);
+        }
+    }
 
-            int len = headers.containsKey("content-length") ? Integer.parseInt(headers.get("content-length")) : 0;
-            byte[] body = readFixed(in, len);
-            if (status != 200) throw new IOException("Status " + status + ": " + new String(body, StandardCharsets.UTF_8));
-            return new String(body, StandardCharsets.UTF_8);
+    private static String udsRequest(Path socketPath, String method, String pathWithQuery, String extraHeaders)
+        throws IOException {
+        try (SocketChannel ch = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            return exchange(ch, socketPath, method, pathWithQuery, extraHeaders, null);
+        }
+    }
+
+    private static String exchange(SocketChannel ch, Path socketPath, String method, String pathWithQuery,
+        String extraHeaders, byte[] requestBody) throws IOException {
+        UnixDomainSocketAddress addr = UnixDomainSocketAddress.of(socketPath);
+        ch.connect(addr);
+        var out = new BufferedOutputStream(Channels.newOutputStream(ch));
+        var in  = new BufferedInputStream(Channels.newInputStream(ch));
+
+        String req = method + " " + pathWithQuery + " HTTP/1.1\r\n" +
+            "Host: localhost\r\n" +
+            extraHeaders +
+            "Connection: close\r\n\r\n";
+        out.write(req.getBytes(StandardCharsets.ISO_8859_1));
+        if (requestBody != null) out.write(requestBody);
+        out.flush();
+
+        // Status line
+        String statusLine = readLine(in);
+        if (statusLine == null || !statusLine.startsWith("HTTP/1.1 ")) {
+            throw new IOException("Invalid response");
         }
+        int status = parseStatus(statusLine);
+
+        // Headers
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int idx = line.indexOf(':');
+            if (idx > 0) headers.put(line.substring(0, idx).trim().toLowerCase(Locale.ROOT),
+                line.substring(idx + 1).trim());
+        }
+
+        int len = headers.containsKey("content-length") ? Integer.parseInt(headers.get("content-length")) : 0;
+        byte[] body = readFixed(in, len);
+        if (status != 200) throw new IOException("Status " + status + ": " + new String(body, StandardCharsets.UTF_8));
+        return new String(body, StandardCharsets.UTF_8);
     }
 
     private static int parseStatus(String statusLine) {
@@ -1,11 +1,12 @@
 package com.murilo.rinha.client;
 
 import com.murilo.rinha.config.AppConfig;
+import com.murilo.rinha.config.MillisClock;
 import com.murilo.rinha.config.MyUltraHttp11Client;
+import com.murilo.rinha.config.RuntimeConfig;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.time.Instant;
 
 public final class MyUltraHttpPaymentProcessorClient implements PaymentProcessorClient, Closeable {
 
@@ -20,15 +21,16 @@ public final class MyUltraHttpPaymentProcessorClient implements PaymentProcessor
     try {
       String host = AppConfig.getMainProcessorHost();
       int port = Integer.parseInt(AppConfig.getMainProcessorPort());
-      return new MyUltraHttpPaymentProcessorClient(host, port, "/payments", 256);
+      return new MyUltraHttpPaymentProcessorClient(host, port, "/payments",
+          RuntimeConfig.current().processorPoolSize());
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
 
   @Override
-  public void process(String correlationId, String amount, Instant requestedAt) {
-    String ts = requestedAt.toString();
+  public void process(String correlationId, String amount, MillisClock.Stamp requestedAt, long deadlineNanos) {
+    String ts = requestedAt.iso();
     int cap = 40 + correlationId.length() + amount.length() + ts.length();
     StringBuilder sb = new StringBuilder(cap);
     sb.append('{')
@@ -38,10 +40,16 @@ public final class MyUltraHttpPaymentProcessorClient implements PaymentProcessor
         .append('}');
     byte[] payload = sb.toString().getBytes(StandardCharsets.UTF_8);
 
-      int status = http.postJson(payload, false); // descarta corpo
+      int status = http.postJson(payload, false, deadlineNanos); // descarta corpo
+      if (status == 422) throw new AlreadyProcessedException("Already processed: " + correlationId);
       if (status != 200) throw new RuntimeException("Main HTTP status " + status);
 
   }
 
+  /** Novo limite de conexoes ociosas; ver {@link MyUltraHttp11Client#resize(int)}. */
+  public void resize(int poolSize) {
+    http.resize(poolSize);
+  }
+
   @Override public void close() { try { http.close(); } catch (Exception ignore) {} }
 }
@@ -1,10 +1,16 @@
 package com.murilo.rinha.client;
 
 
-import java.time.Instant;
+import com.murilo.rinha.config.MillisClock;
 
 public interface PaymentProcessorClient {
 
 
-    void process(String correlationId, String amount, Instant requestedAt);
+    /**
+     * {@code deadlineNanos} e absoluto, na base de {@link System#nanoTime()}; {@code requestedAt} ja vem
+     * com o ISO renderizado.
+     *
+     * @throws AlreadyProcessedException se o processador ja tem esse correlationId
+     */
+    void process(String correlationId, String amount, MillisClock.Stamp requestedAt, long deadlineNanos);
 }
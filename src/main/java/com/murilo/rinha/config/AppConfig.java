@@ -1,5 +1,7 @@
 package com.murilo.rinha.config;
 
+import java.nio.file.Path;
+
 public class AppConfig {
 
     public static String getProperty(String key, String defaultValue) {
@@ -32,11 +34,245 @@ public class AppConfig {
         return getProperty("FALLBACK_PROCESSOR_PORT", "8002");
     }
 
+    /**
+     * {@code nome=host:porta,...} em ordem de prioridade. Padrao: default e fallback a partir
+     * das variaveis MAIN_/FALLBACK_PROCESSOR_*.
+     */
+    public static String getProcessors() {
+        return getProperty("RINHA_PROCESSORS",
+            "default=" + getMainProcessorHost() + ":" + getMainProcessorPort()
+                + ",fallback=" + getFallbackProcessorHost() + ":" + getFallbackProcessorPort());
+    }
+
     public static int getDlqBufferSize() {
-        return getIntProperty("RINHA_DLQ_BUFFER_SIZE", 7000);
+        return getIntProperty("RINHA_DLQ_BUFFER_SIZE", ResourceProfile.current().dlqBufferSize());
     }
     
     public static int getDlqWorkerNum() {
-        return getIntProperty("RINHA_DLQ_WORKER_NUM", 1);
+        return getIntProperty("RINHA_DLQ_WORKER_NUM", ResourceProfile.current().dlqWorkers());
+    }
+
+    /** Pagamentos por rodada de um worker antes de dormir. */
+    public static int getDlqBatch() {
+        return getIntProperty("RINHA_DLQ_BATCH", 550);
+    }
+
+    public static int getDlqIdleMs() {
+        return getIntProperty("RINHA_DLQ_IDLE_MS", 500);
+    }
+
+    /** Conexoes ociosas mantidas por processador. */
+    public static int getProcessorPoolSize() {
+        return getIntProperty("RINHA_PROCESSOR_POOL_SIZE", ResourceProfile.current().processorPoolSize());
+    }
+
+    /** Quanto um processador fica marcado down (timeout, summary) antes de voltar sozinho. */
+    public static int getHealthResetMs() {
+        return getIntProperty("RINHA_HEALTH_RESET_MS", 5040);
+    }
+
+    /** Token da rota /admin/config; sem ele a rota nao existe. */
+    public static String getAdminToken() {
+        String token = getProperty("RINHA_ADMIN_TOKEN", "");
+        return token.isBlank() ? null : token;
+    }
+
+    public static String getWalDir() {
+        return getProperty("RINHA_WAL_DIR", null);
+    }
+
+    public static int getWalSegmentBytes() {
+        return getIntProperty("RINHA_WAL_SEGMENT_BYTES", 4 * 1024 * 1024);
+    }
+
+    public static String getWalSyncPolicy() {
+        return getProperty("RINHA_WAL_SYNC", "none");
+    }
+
+    public static int getWalSyncIntervalMs() {
+        return getIntProperty("RINHA_WAL_SYNC_INTERVAL_MS", 5);
+    }
+
+    public static int getWalTruncateIntervalMs() {
+        return getIntProperty("RINHA_WAL_TRUNCATE_INTERVAL_MS", 1000);
+    }
+
+    public static boolean isAdmissionEnabled() {
+        return Boolean.parseBoolean(getProperty("RINHA_ADMISSION_ENABLED", "true"));
+    }
+
+    public static int getAdmissionMinDepth() {
+        return getIntProperty("RINHA_ADMISSION_MIN_DEPTH", 256);
+    }
+
+    public static int getAdmissionDrainSlaMs() {
+        return getIntProperty("RINHA_ADMISSION_DRAIN_SLA_MS", 30_000);
+    }
+
+    public static int getAdmissionMaxHeapPct() {
+        return getIntProperty("RINHA_ADMISSION_MAX_HEAP_PCT", 90);
+    }
+
+    public static boolean isInlineEnabled() {
+        return Boolean.parseBoolean(getProperty("RINHA_INLINE_ENABLED", "true"));
+    }
+
+    public static int getInlineMaxQueueDepth() {
+        return getIntProperty("RINHA_INLINE_MAX_QUEUE_DEPTH", 1);
+    }
+
+    public static int getInlineMaxInFlight() {
+        return getIntProperty("RINHA_INLINE_MAX_IN_FLIGHT", ResourceProfile.current().inlineMaxInFlight());
+    }
+
+    public static int getPaymentDeadlineMs() {
+        return getIntProperty("RINHA_PAYMENT_DEADLINE_MS", 5000);
+    }
+
+    /** Idade a partir da qual o pagamento vai para o processador mais rapido de pe; 0 desliga. */
+    public static int getQueueEscalateAgeMs() {
+        return getIntProperty("RINHA_QUEUE_ESCALATE_AGE_MS", 2000);
+    }
+
+    public static int getProcessorMinTimeoutMs() {
+        return getIntProperty("RINHA_PROCESSOR_MIN_TIMEOUT_MS", 1000);
+    }
+
+    public static int getWatchdogTickMs() {
+        return getIntProperty("RINHA_WATCHDOG_TICK_MS", 5);
+    }
+
+    public static boolean isDedupeEnabled() {
+        return Boolean.parseBoolean(getProperty("RINHA_DEDUPE_ENABLED", "true"));
+    }
+
+    public static int getDedupeWindowMs() {
+        return getIntProperty("RINHA_DEDUPE_WINDOW_MS", 120_000);
+    }
+
+    public static int getDedupeMemoryBytes() {
+        return getIntProperty("RINHA_DEDUPE_MEMORY_BYTES", ResourceProfile.current().dedupeMemoryBytes());
+    }
+
+    public static String getCaptureFile() {
+        return getProperty("RINHA_CAPTURE_FILE", null);
+    }
+
+    public static int getCaptureBufferSize() {
+        return getIntProperty("RINHA_CAPTURE_BUFFER", 65_536);
+    }
+
+    public static int getMaxConnections() {
+        return getIntProperty("RINHA_MAX_CONNECTIONS", ResourceProfile.current().maxConnections());
+    }
+
+    /** Buffers de corpo (requests maiores que o buffer de header) mantidos no pool. */
+    public static int getBodyBuffers() {
+        return getIntProperty("RINHA_BODY_BUFFERS", ResourceProfile.current().bodyBuffers());
+    }
+
+    public static int getBodyBufferBytes() {
+        return getIntProperty("RINHA_BODY_BUFFER_BYTES", ResourceProfile.current().bodyBufferBytes());
+    }
+
+    public static int getIdleTimeoutMs() {
+        return getIntProperty("RINHA_IDLE_TIMEOUT_MS", 30_000);
+    }
+
+    public static int getHeaderTimeoutMs() {
+        return getIntProperty("RINHA_HEADER_TIMEOUT_MS", 5000);
+    }
+
+    public static int getConnectionReaperTickMs() {
+        return getIntProperty("RINHA_CONNECTION_REAPER_TICK_MS", 100);
+    }
+
+    public static int getLedgerRawWindowMs() {
+        return getIntProperty("RINHA_LEDGER_RAW_WINDOW_MS", 600_000);
+    }
+
+    public static int getLedgerSecondWindowMs() {
+        return getIntProperty("RINHA_LEDGER_SECOND_WINDOW_MS", 3_600_000);
+    }
+
+    public static int getLedgerCompactIntervalMs() {
+        return getIntProperty("RINHA_LEDGER_COMPACT_INTERVAL_MS", 1000);
+    }
+
+    public static boolean isSummaryCacheEnabled() {
+        return Boolean.parseBoolean(getProperty("RINHA_SUMMARY_CACHE_ENABLED", "true"));
+    }
+
+    public static int getSummaryCacheEntries() {
+        return getIntProperty("RINHA_SUMMARY_CACHE_ENTRIES", 256);
+    }
+
+    /** Padrao: ao lado do SOCKET, que fica num volume compartilhado pelas instancias. */
+    public static String getHealthFile() {
+        String socket = getProperty("SOCKET", null);
+        String fallback = socket == null ? null : Path.of(socket).resolveSibling("health.shm").toString();
+        String value = getProperty("RINHA_HEALTH_FILE", fallback);
+        return value == null || value.isBlank() || value.equals("none") ? null : value;
+    }
+
+    public static int getHealthProbeIntervalMs() {
+        return getIntProperty("RINHA_HEALTH_PROBE_INTERVAL_MS", 5000);
+    }
+
+    public static int getHealthReadTickMs() {
+        return getIntProperty("RINHA_HEALTH_READ_TICK_MS", 100);
+    }
+
+    public static int getHealthElectionIntervalMs() {
+        return getIntProperty("RINHA_HEALTH_ELECTION_INTERVAL_MS", 1000);
+    }
+
+    /** O que o purge faz com a fila: discard (padrao), drain (espera esvaziar) ou keep. */
+    public static String getPurgeQueueMode() {
+        return getProperty("RINHA_PURGE_QUEUE", "discard");
+    }
+
+    public static int getPurgeDrainTimeoutMs() {
+        return getIntProperty("RINHA_PURGE_DRAIN_TIMEOUT_MS", 5000);
+    }
+
+    /** Prazo no SIGTERM para as chamadas em andamento terminarem antes do handoff ao peer. */
+    public static int getDrainTimeoutMs() {
+        return getIntProperty("RINHA_DRAIN_TIMEOUT_MS", 5000);
+    }
+
+    /** Pagamentos por request do handoff ao peer. */
+    public static int getHandoffBatch() {
+        return getIntProperty("RINHA_HANDOFF_BATCH", 2000);
+    }
+
+    /** Segredo compartilhado da rota /payments-handoff; sem ele nao ha handoff (o backlog fica local). */
+    public static String getHandoffToken() {
+        String token = getProperty("RINHA_HANDOFF_TOKEN", "");
+        return token.isBlank() ? null : token;
+    }
+
+    /** Limite de buckets por resposta do /payments-summary/series. */
+    public static int getSeriesMaxBuckets() {
+        return getIntProperty("RINHA_SERIES_MAX_BUCKETS", 10_000);
+    }
+
+    /** Segundos de sketches de latencia guardados para o series; 0 desliga. */
+    public static int getSeriesLatencyWindowS() {
+        return getIntProperty("RINHA_SERIES_LATENCY_WINDOW_S", 600);
+    }
+
+    /** {@code unix:/caminho} e/ou {@code tcp:[host:]porta}, separados por virgula. */
+    public static String getListeners() {
+        return getProperty("RINHA_LISTENERS", "unix:" + getProperty("SOCKET", "/tmp/rinha.sock"));
+    }
+
+    /** {@code nio} ou {@code epoll} (listener UDS via FFM; build com -Pffm e JVM com --enable-preview). */
+    public static String getTransport() {
+        return getProperty("RINHA_TRANSPORT", "nio");
+    }
+
+    public static int getTcpAcceptors() {
+        return getIntProperty("RINHA_TCP_ACCEPTORS", Runtime.getRuntime().availableProcessors());
     }
-} 
\ No newline at end of file
+}
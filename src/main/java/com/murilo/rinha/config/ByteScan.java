@@ -0,0 +1,60 @@
+package com.murilo.rinha.config;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Busca de bytes 8 por vez (SWAR) para o framing HTTP dos dois lados.
+ *
+ * Le um long por iteracao e marca os bytes iguais ao alvo com a formula exata de
+ * "byte zero" (sem falso positivo), entao da para percorrer todos os matches da
+ * palavra. Os limites sao checados uma vez por palavra, nao por byte.
+ */
+public final class ByteScan {
+
+  private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+  private static final long ONES = 0x0101010101010101L;
+
+  private ByteScan() {}
+
+  /** Bit alto ligado em cada byte de {@code word} igual a {@code b}. */
+  static long matches(long word, byte b) {
+    long x = word ^ (ONES * (b & 0xFF));
+    return ~(((x & LOW7) + LOW7) | x | LOW7);
+  }
+
+  /** Primeiro {@code b} em [from, min(to, position)), ou -1. Usa get absoluto, nao mexe na posicao. */
+  public static int indexOf(ByteBuffer buf, byte b, int from, int to) {
+    int lim = Math.min(buf.position(), to);
+    int i = from;
+    boolean le = buf.order() == ByteOrder.LITTLE_ENDIAN;
+    for (; i + 8 <= lim; i += 8) {
+      long w = buf.getLong(i);
+      long m = matches(le ? w : Long.reverseBytes(w), b);
+      if (m != 0) return i + (Long.numberOfTrailingZeros(m) >>> 3);
+    }
+    for (; i < lim; i++) if (buf.get(i) == b) return i;
+    return -1;
+  }
+
+  /** Inicio do primeiro "\r\n\r\n" que comeca em [from, min(to, position)), ou -1. */
+  public static int indexOfCrlfCrlf(ByteBuffer buf, int from, int to) {
+    int lim = Math.min(buf.position(), to);
+    boolean le = buf.order() == ByteOrder.LITTLE_ENDIAN;
+    // procura o ultimo '\n' e confere os 3 bytes anteriores
+    int i = from + 3;
+    for (; i + 8 <= lim; i += 8) {
+      long w = buf.getLong(i);
+      long m = matches(le ? w : Long.reverseBytes(w), (byte) '\n');
+      while (m != 0) {
+        int p = i + (Long.numberOfTrailingZeros(m) >>> 3);
+        if (buf.get(p - 1) == '\r' && buf.get(p - 2) == '\n' && buf.get(p - 3) == '\r') return p - 3;
+        m &= m - 1;
+      }
+    }
+    for (; i < lim; i++) {
+      if (buf.get(i) == '\n' && buf.get(i - 1) == '\r' && buf.get(i - 2) == '\n' && buf.get(i - 3) == '\r') return i - 3;
+    }
+    return -1;
+  }
+}
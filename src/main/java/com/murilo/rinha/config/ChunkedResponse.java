@@ -0,0 +1,55 @@
+package com.murilo.rinha.config;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Resposta HTTP/1.1 com {@code Transfer-Encoding: chunked}: o corpo vai saindo em pedacos
+ * de ate {@code flushAt} chars conforme e gerado, sem montar tudo em memoria. Corpo ASCII.
+ */
+public final class ChunkedResponse {
+
+  private final SocketChannel ch;
+  private final int flushAt;
+  private final StringBuilder pending;
+
+  public ChunkedResponse(SocketChannel ch, String contentType, String connectionHeaders, int flushAt)
+      throws IOException {
+    this.ch = ch;
+    this.flushAt = flushAt;
+    this.pending = new StringBuilder(flushAt + 256);
+    write("HTTP/1.1 200 OK\r\n"
+        + "Content-Type: " + contentType + "\r\n"
+        + "Transfer-Encoding: chunked\r\n"
+        + connectionHeaders
+        + "\r\n");
+  }
+
+  /** Buffer do proximo chunk; chame {@link #maybeFlush()} depois de escrever. */
+  public StringBuilder buffer() {
+    return pending;
+  }
+
+  public void maybeFlush() throws IOException {
+    if (pending.length() >= flushAt) flush();
+  }
+
+  public void flush() throws IOException {
+    if (pending.isEmpty()) return;
+    write(Integer.toHexString(pending.length()) + "\r\n" + pending + "\r\n");
+    pending.setLength(0);
+  }
+
+  /** Manda o que falta e o chunk final. */
+  public void finish() throws IOException {
+    flush();
+    write("0\r\n\r\n");
+  }
+
+  private void write(String s) throws IOException {
+    ByteBuffer b = ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII));
+    while (b.hasRemaining()) ch.write(b);
+  }
+}
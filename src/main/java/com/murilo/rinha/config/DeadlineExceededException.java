@@ -0,0 +1,10 @@
+package com.murilo.rinha.config;
+
+public class DeadlineExceededException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  public DeadlineExceededException(String message) {
+    super(message, null, false, false);
+  }
+}
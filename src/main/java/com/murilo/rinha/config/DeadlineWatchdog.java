@@ -0,0 +1,90 @@
+package com.murilo.rinha.config;
+
+import java.io.IOException;
+import java.nio.channels.Channel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Canais bloqueantes nao tem timeout de leitura/escrita. Uma thread varre os guards armados
+ * e fecha o canal de quem passou do prazo; o read/write bloqueado acorda com
+ * AsynchronousCloseException e o dono ve {@link Guard#expired()}.
+ *
+ * Disarm e expiracao disputam o mesmo CAS no guard: so quem ganha age, entao a varredura
+ * nunca fecha um canal que ja foi desarmado (e talvez devolvido ao pool e reusado).
+ */
+public final class DeadlineWatchdog {
+
+  private static final DeadlineWatchdog SHARED = new DeadlineWatchdog("deadline-watchdog", AppConfig.getWatchdogTickMs());
+
+  private final Set<Guard> armed = ConcurrentHashMap.newKeySet();
+  private final long tickMillis;
+
+  private DeadlineWatchdog(String name, long tickMillis) {
+    this.tickMillis = Math.max(1, tickMillis);
+    Thread.ofPlatform().daemon().name(name).start(this::run);
+  }
+
+  public static DeadlineWatchdog shared() {
+    return SHARED;
+  }
+
+  /** Varredura grossa para timeouts de conexao (idle, header): muitos guards, pouca precisao. */
+  public static DeadlineWatchdog connections() {
+    return Connections.INSTANCE;
+  }
+
+  private static final class Connections {
+    static final DeadlineWatchdog INSTANCE = new DeadlineWatchdog("connection-reaper", AppConfig.getConnectionReaperTickMs());
+  }
+
+  public void arm(Guard guard, long deadlineNanos) {
+    guard.deadlineNanos = deadlineNanos;
+    guard.state.set(Guard.ARMED);
+    armed.add(guard);
+  }
+
+  /** @return false se o prazo ja tinha estourado (o canal foi ou esta sendo fechado) */
+  public boolean disarm(Guard guard) {
+    if (guard.state.compareAndSet(Guard.ARMED, Guard.IDLE)) {
+      armed.remove(guard);
+      return true;
+    }
+    return !guard.expired();
+  }
+
+  private void run() {
+    for (;;) {
+      try {
+        Thread.sleep(tickMillis);
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (armed.isEmpty()) continue;
+      long now = System.nanoTime();
+      for (Guard g : armed) {
+        if (now - g.deadlineNanos > 0 && g.state.compareAndSet(Guard.ARMED, Guard.EXPIRED)) {
+          armed.remove(g);
+          try { g.channel.close(); } catch (IOException ignore) {}
+        }
+      }
+    }
+  }
+
+  public static final class Guard {
+    private static final int IDLE = 0, ARMED = 1, EXPIRED = 2;
+
+    private final Channel channel;
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+    private volatile long deadlineNanos;
+
+    public Guard(Channel channel) {
+      this.channel = channel;
+    }
+
+    public boolean expired() {
+      return state.get() == EXPIRED;
+    }
+  }
+}
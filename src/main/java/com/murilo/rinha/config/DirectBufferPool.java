@@ -0,0 +1,41 @@
+package com.murilo.rinha.config;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffers diretos reaproveitados entre conexoes. ThreadLocal em virtual thread e um buffer
+ * por conexao, liberado so quando o GC roda o Cleaner; aqui o buffer volta para o pool no
+ * close e o total alocado fica limitado por quantos estao em uso ao mesmo tempo.
+ */
+public final class DirectBufferPool {
+
+  private final int bufferBytes;
+  private final ArrayBlockingQueue<ByteBuffer> free;
+  private final AtomicLong allocated = new AtomicLong();
+
+  public DirectBufferPool(int bufferBytes, int maxPooled) {
+    this.bufferBytes = bufferBytes;
+    this.free = new ArrayBlockingQueue<>(Math.max(1, maxPooled));
+  }
+
+  public ByteBuffer acquire() {
+    ByteBuffer b = free.poll();
+    if (b == null) {
+      allocated.incrementAndGet();
+      b = ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.nativeOrder());
+    }
+    return b.clear();
+  }
+
+  /** Pool cheio: o buffer fica para o GC. */
+  public void release(ByteBuffer b) {
+    if (b != null && !free.offer(b)) allocated.decrementAndGet();
+  }
+
+  public long allocatedBytes() {
+    return allocated.get() * bufferBytes;
+  }
+}
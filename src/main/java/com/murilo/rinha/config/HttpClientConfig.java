@@ -14,13 +14,13 @@ import java.util.Arrays;
 
 public class HttpClientConfig {
     
-    private static final int CONNECTION_POOL_SIZE = 128;
-    private static final int CONNECTION_POOL_PER_ROUTE = 128;
 
     public static CloseableHttpClient createApacheHttpClient() {
+        // mesmo limite por processador do cliente principal (perfil de recursos ou override)
+        int perRoute = AppConfig.getProcessorPoolSize();
         PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
-        connectionManager.setMaxTotal(CONNECTION_POOL_SIZE);
-        connectionManager.setDefaultMaxPerRoute(CONNECTION_POOL_PER_ROUTE);
+        connectionManager.setMaxTotal(perRoute * 2);
+        connectionManager.setDefaultMaxPerRoute(perRoute);
 
         RequestConfig requestConfig = RequestConfig.custom()
                 .build();
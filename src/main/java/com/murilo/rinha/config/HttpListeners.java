@@ -0,0 +1,239 @@
+package com.murilo.rinha.config;
+
+import com.murilo.rinha.metrics.Counter;
+import com.murilo.rinha.metrics.Histogram;
+import com.murilo.rinha.metrics.MetricsRegistry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Conjunto de listeners (UDS e TCP) que alimentam o mesmo {@link InboundConnections}.
+ *
+ * Spec: {@code unix:/caminho} ou {@code tcp:[host:]porta}, separados por virgula. Cada
+ * TCP tem N acceptors; com SO_REUSEPORT sao N sockets na mesma porta e o kernel divide
+ * as conexoes, senao N threads no accept do mesmo socket. UDS tem um acceptor.
+ *
+ * Com transporte {@code epoll} o listener UDS e o nativo (FFM) do pacote
+ * {@code config.epoll}; se ele nao estiver no build ou nao carregar, fica o NIO.
+ */
+public final class HttpListeners implements Closeable {
+
+  @FunctionalInterface
+  public interface Handler {
+    void handle(InboundConnections.Connection conn, SocketChannel ch);
+  }
+
+  /** Listener de transporte nativo; as conexoes que ele devolve sao SocketChannel bloqueantes. */
+  public interface NativeListener extends Channel {
+    SocketChannel accept() throws IOException;
+  }
+
+  @FunctionalInterface
+  private interface Accept {
+    SocketChannel accept() throws IOException;
+  }
+
+  /** Metricas de um listener; a conexao registra nelas o tempo de cada request. */
+  public static final class Listener {
+    final String name;
+    final Counter accepted;
+    final Counter acceptErrors;
+    final AtomicInteger open = new AtomicInteger();
+    final Histogram requestTime;
+
+    Listener(String name) {
+      this.name = name;
+      MetricsRegistry m = MetricsRegistry.global();
+      this.accepted = m.counter("rinha_listener_accepted_total", "Connections accepted per listener", "listener", name);
+      this.acceptErrors = m.counter("rinha_listener_accept_errors_total",
+          "Failed accepts per listener (EMFILE, ECONNABORTED...), retried with backoff", "listener", name);
+      this.requestTime = m.histogram("rinha_listener_request_seconds",
+          "From the first byte of a request until the connection is ready for the next one", "listener", name);
+      m.gauge("rinha_listener_connections_open", "Open connections per listener", open::get, "listener", name);
+    }
+
+    public String name() {
+      return name;
+    }
+  }
+
+  private static final long ACCEPT_BACKOFF_MIN_MS = 5;
+  private static final long ACCEPT_BACKOFF_MAX_MS = 1000;
+  private static final long ACCEPT_LOG_EVERY_MS = 10_000;
+
+  private static final String EPOLL_LISTENER = "com.murilo.rinha.config.epoll.EpollUnixListener";
+
+  private final InboundConnections connections;
+  private final Handler handler;
+  private final String transport;
+  private final List<Channel> servers = new ArrayList<>();
+  private final List<Path> socketFiles = new ArrayList<>();
+  private final List<Thread> acceptors = new ArrayList<>();
+
+  public HttpListeners(String spec, int tcpAcceptors, String transport, InboundConnections connections,
+      Handler handler) throws IOException {
+    this.connections = connections;
+    this.handler = handler;
+    this.transport = transport;
+    for (String part : spec.split(",")) {
+      part = part.trim();
+      if (part.isEmpty()) continue;
+      if (part.startsWith("unix:")) {
+        bindUnix(Path.of(part.substring(5)));
+      } else if (part.startsWith("tcp:")) {
+        bindTcp(part.substring(4), Math.max(1, tcpAcceptors));
+      } else {
+        throw new IllegalArgumentException("Invalid listener: " + part);
+      }
+    }
+    if (servers.isEmpty()) throw new IllegalArgumentException("No listeners configured");
+  }
+
+  private void bindUnix(Path sock) throws IOException {
+    try { Files.deleteIfExists(sock); } catch (Exception ignore) {}
+    if (sock.getParent() != null) {
+      Files.createDirectories(sock.getParent());
+      try {
+        Files.setPosixFilePermissions(sock.getParent(), PosixFilePermissions.fromString("rwxrwxrwx"));
+      } catch (Exception ignore) {}
+    }
+    NativeListener epoll = transport.equals("epoll") ? openEpoll(sock) : null;
+    Channel server;
+    Accept accept;
+    if (epoll != null) {
+      server = epoll;
+      accept = epoll::accept;
+    } else {
+      ServerSocketChannel nio = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+      nio.bind(UnixDomainSocketAddress.of(sock));
+      server = nio;
+      accept = nio::accept;
+    }
+    try {
+      Files.setPosixFilePermissions(sock, PosixFilePermissions.fromString("rw-rw-rw-"));
+    } catch (Exception ignore) {}
+    servers.add(server);
+    socketFiles.add(sock);
+    Listener listener = new Listener("unix:" + sock);
+    acceptors.add(acceptor(server, accept, listener, 0));
+    System.out.println("UDS HTTP listening on " + sock + (epoll != null ? " (epoll)" : ""));
+  }
+
+  /** Classe do perfil ffm, carregada por nome: o build padrao (e o native-image) nao a tem. */
+  private static NativeListener openEpoll(Path sock) {
+    try {
+      return (NativeListener) Class.forName(EPOLL_LISTENER).getMethod("open", Path.class).invoke(null, sock);
+    } catch (Throwable e) {
+      Throwable cause = e instanceof InvocationTargetException ite ? ite.getCause() : e;
+      System.err.println("epoll transport unavailable, using NIO: " + cause);
+      return null;
+    }
+  }
+
+  private void bindTcp(String hostPort, int acceptorCount) throws IOException {
+    int colon = hostPort.lastIndexOf(':');
+    String host = colon < 0 ? "0.0.0.0" : hostPort.substring(0, colon);
+    int port = Integer.parseInt(hostPort.substring(colon + 1));
+    InetSocketAddress addr = new InetSocketAddress(host, port);
+    Listener listener = new Listener("tcp:" + host + ":" + port);
+
+    ServerSocketChannel first = ServerSocketChannel.open();
+    boolean reusePort = acceptorCount > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+    first.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+    if (reusePort) first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+    first.bind(addr, 1024);
+    servers.add(first);
+    acceptors.add(acceptor(first, first::accept, listener, 0));
+    for (int i = 1; i < acceptorCount; i++) {
+      ServerSocketChannel server = first;
+      if (reusePort) {
+        server = ServerSocketChannel.open();
+        server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        server.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        server.bind(addr, 1024);
+        servers.add(server);
+      }
+      acceptors.add(acceptor(server, server::accept, listener, i));
+    }
+    System.out.println("TCP HTTP listening on " + host + ":" + port + " (" + acceptorCount + " acceptors"
+        + (reusePort ? ", SO_REUSEPORT" : "") + ")");
+  }
+
+  /**
+   * Erro no accept (fd esgotado, conexao abortada antes do accept) e transitorio: espera com
+   * backoff e tenta de novo. So sai quando o socket foi fechado, senao o processo seguiria de pe
+   * sem aceitar conexoes.
+   */
+  private Thread acceptor(Channel server, Accept accept, Listener listener, int index) {
+    return Thread.ofPlatform().name("accept-" + listener.name + "-" + index).unstarted(() -> {
+      long backoff = 0;
+      long lastLog = 0;
+      try {
+        while (true) {
+          connections.awaitSlot();
+          SocketChannel ch;
+          try {
+            ch = accept.accept();
+          } catch (ClosedChannelException e) {
+            connections.releaseSlot();
+            return;
+          } catch (IOException e) {
+            connections.releaseSlot();
+            if (!server.isOpen()) return;
+            listener.acceptErrors.inc();
+            backoff = backoff == 0 ? ACCEPT_BACKOFF_MIN_MS : Math.min(ACCEPT_BACKOFF_MAX_MS, backoff * 2);
+            long now = System.currentTimeMillis();
+            if (now - lastLog >= ACCEPT_LOG_EVERY_MS) {
+              lastLog = now;
+              System.err.println("Acceptor " + listener.name + " failed, retrying in " + backoff + "ms: " + e);
+            }
+            Thread.sleep(backoff);
+            continue;
+          }
+          backoff = 0;
+          if (listener.name.startsWith("tcp:")) {
+            try { ch.setOption(StandardSocketOptions.TCP_NODELAY, true); } catch (IOException ignore) {}
+          }
+          handler.handle(connections.register(ch, listener), ch);
+        }
+      } catch (InterruptedException e) {
+        // shutdown
+      }
+    });
+  }
+
+  public void start() {
+    for (Thread t : acceptors) t.start();
+  }
+
+  /** Bloqueia ate todos os acceptors terminarem (close). */
+  public void join() throws InterruptedException {
+    for (Thread t : acceptors) t.join();
+  }
+
+  @Override
+  public void close() {
+    for (Channel s : servers) {
+      try { s.close(); } catch (IOException ignore) {}
+    }
+    for (Path p : socketFiles) {
+      try { Files.deleteIfExists(p); } catch (IOException ignore) {}
+    }
+  }
+}
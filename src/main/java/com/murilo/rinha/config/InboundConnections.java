@@ -0,0 +1,157 @@
+package com.murilo.rinha.config;
+
+import com.murilo.rinha.metrics.Counter;
+import com.murilo.rinha.metrics.MetricsRegistry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Conexoes de todos os listeners: limite de conexoes simultaneas (o accept espera vaga),
+ * timeout de ociosidade entre requests e timeout de leitura do request, buffers
+ * de pool e as metricas de abertas/ociosas/derrubadas.
+ */
+public final class InboundConnections {
+
+  private final Semaphore slots;
+  private final long idleTimeoutNanos;
+  private final long headerTimeoutNanos;
+  private final DeadlineWatchdog watchdog = DeadlineWatchdog.connections();
+  private final DirectBufferPool headers;
+  private final DirectBufferPool bodies;
+
+  private final AtomicInteger open = new AtomicInteger();
+  private final AtomicInteger idle = new AtomicInteger();
+  private final Counter accepted;
+  private final Counter saturated;
+  private final Counter reapedIdle;
+  private final Counter reapedHeader;
+
+  public InboundConnections(int maxConnections, long idleTimeoutMillis, long headerTimeoutMillis,
+      int headerBufferBytes, int bodyBufferBytes, int bodyBuffers) {
+    this.slots = new Semaphore(maxConnections);
+    this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+    this.headerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(headerTimeoutMillis);
+    this.headers = new DirectBufferPool(headerBufferBytes, maxConnections);
+    // corpo maior que o buffer de header e raro; poucos bastam
+    this.bodies = new DirectBufferPool(bodyBufferBytes, bodyBuffers);
+
+    MetricsRegistry m = MetricsRegistry.global();
+    m.gauge("rinha_connections_open", "Inbound connections currently open", open::get);
+    m.gauge("rinha_connections_idle", "Inbound connections waiting for the next request", idle::get);
+    m.gauge("rinha_connections_max", "Inbound connection limit", () -> maxConnections);
+    m.gauge("rinha_connection_buffer_bytes", "Direct buffer memory held by the inbound pools",
+        () -> headers.allocatedBytes() + bodies.allocatedBytes());
+    this.accepted = m.counter("rinha_connections_accepted_total", "Inbound connections accepted");
+    this.saturated = m.counter("rinha_connections_saturated_total", "Accepts that had to wait for a free slot");
+    String help = "Inbound connections closed by a timeout";
+    this.reapedIdle = m.counter("rinha_connections_reaped_total", help, "reason", "idle");
+    this.reapedHeader = m.counter("rinha_connections_reaped_total", help, "reason", "header");
+  }
+
+  /** Bloqueia o loop de accept ate haver vaga; o backlog do kernel segura o resto. */
+  public void awaitSlot() throws InterruptedException {
+    if (!slots.tryAcquire()) {
+      saturated.inc();
+      slots.acquire();
+    }
+  }
+
+  /** Devolve a vaga de um accept que falhou. */
+  public void releaseSlot() {
+    slots.release();
+  }
+
+  public Connection register(SocketChannel ch, HttpListeners.Listener listener) {
+    accepted.inc();
+    open.incrementAndGet();
+    listener.accepted.inc();
+    listener.open.incrementAndGet();
+    return new Connection(ch, listener);
+  }
+
+  public final class Connection implements Closeable {
+    private final SocketChannel ch;
+    private final HttpListeners.Listener listener;
+    private final DeadlineWatchdog.Guard guard;
+    private ByteBuffer header;
+    private long requestStart;
+    private boolean idlePhase;
+    private boolean reading;
+    private boolean closed;
+
+    private Connection(SocketChannel ch, HttpListeners.Listener listener) {
+      this.ch = ch;
+      this.listener = listener;
+      this.guard = new DeadlineWatchdog.Guard(ch);
+      this.header = headers.acquire();
+    }
+
+    public ByteBuffer header() {
+      return header;
+    }
+
+    /** Esperando o proximo request: vale o timeout de ociosidade. */
+    public void awaitingRequest() {
+      requestDone();
+      idlePhase = true;
+      reading = true;
+      idle.incrementAndGet();
+      watchdog.arm(guard, System.nanoTime() + idleTimeoutNanos);
+    }
+
+    /** Chegaram bytes: a partir daqui vale o timeout de leitura do request. */
+    public void receiving() {
+      if (!idlePhase) return;
+      idlePhase = false;
+      requestStart = System.nanoTime();
+      idle.decrementAndGet();
+      watchdog.arm(guard, System.nanoTime() + headerTimeoutNanos);
+    }
+
+    /** Request inteiro lido; processamento e resposta nao tem timeout aqui. */
+    public void received() {
+      reading = false;
+      watchdog.disarm(guard);
+    }
+
+    /** Fecha a conta do request anterior no histograma do listener (so se foi lido inteiro). */
+    private void requestDone() {
+      if (requestStart != 0 && !reading) listener.requestTime.recordSince(requestStart);
+      requestStart = 0;
+    }
+
+    public boolean reaped() {
+      return guard.expired();
+    }
+
+    public ByteBuffer borrowBody() {
+      return bodies.acquire();
+    }
+
+    public void returnBody(ByteBuffer b) {
+      bodies.release(b);
+    }
+
+    @Override
+    public void close() {
+      if (closed) return;
+      closed = true;
+      requestDone();
+      watchdog.disarm(guard);
+      if (idlePhase) idle.decrementAndGet();
+      if (reading && guard.expired()) (idlePhase ? reapedIdle : reapedHeader).inc();
+      try { ch.close(); } catch (IOException ignore) {}
+      headers.release(header);
+      header = null;
+      open.decrementAndGet();
+      listener.open.decrementAndGet();
+      slots.release();
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package com.murilo.rinha.config;
+
+import java.time.Instant;
+
+/**
+ * ISO-8601 <-> epoch millis sem passar por {@link Instant}/DateTimeFormatter.
+ *
+ * Parse aceita {@code yyyy-MM-ddTHH:mm:ss[.fracao](Z|+hh:mm|-hh:mm|+hhmm)} e trunca a fracao
+ * em milissegundos, como {@code Instant.parse(s).truncatedTo(MILLIS)}. Qualquer outra coisa
+ * devolve {@link #INVALID} e quem chama cai no caminho do JDK.
+ */
+public final class IsoTime {
+
+  public static final long INVALID = Long.MIN_VALUE;
+
+  private IsoTime() {}
+
+  public static long parseMillis(byte[] s, int from, int to) {
+    if (to - from < 20) return INVALID;
+    int p = from;
+    int year = digits(s, p, 4);
+    if (year < 0 || s[p + 4] != '-') return INVALID;
+    int month = digits(s, p + 5, 2);
+    if (month < 1 || month > 12 || s[p + 7] != '-') return INVALID;
+    int day = digits(s, p + 8, 2);
+    if (day < 1 || day > daysInMonth(year, month)) return INVALID;
+    byte t = s[p + 10];
+    if (t != 'T' && t != 't') return INVALID;
+    int hour = digits(s, p + 11, 2);
+    if (hour < 0 || hour > 23 || s[p + 13] != ':') return INVALID;
+    int minute = digits(s, p + 14, 2);
+    if (minute < 0 || minute > 59 || s[p + 16] != ':') return INVALID;
+    int second = digits(s, p + 17, 2);
+    if (second < 0 || second > 59) return INVALID;
+    p += 19;
+
+    int millis = 0;
+    if (p < to && s[p] == '.') {
+      p++;
+      int start = p;
+      while (p < to && s[p] >= '0' && s[p] <= '9') {
+        if (p - start < 3) millis = millis * 10 + (s[p] - '0');
+        p++;
+      }
+      int n = p - start;
+      if (n == 0 || n > 9) return INVALID;
+      for (int i = n; i < 3; i++) millis *= 10;
+    }
+
+    int offsetSeconds;
+    if (p < to && (s[p] == 'Z' || s[p] == 'z')) {
+      offsetSeconds = 0;
+      p++;
+    } else if (p < to && (s[p] == '+' || s[p] == '-')) {
+      int sign = s[p] == '-' ? -1 : 1;
+      int oh = digits(s, p + 1, 2);
+      int q = p + 3;
+      if (q < to && s[q] == ':') q++;
+      int om = q + 2 <= to ? digits(s, q, 2) : -1;
+      if (oh < 0 || oh > 18 || om < 0 || om > 59) return INVALID;
+      offsetSeconds = sign * (oh * 3600 + om * 60);
+      p = q + 2;
+    } else {
+      return INVALID;
+    }
+    if (p != to) return INVALID;
+
+    long days = daysFromCivil(year, month, day);
+    long epochSecond = days * 86_400 + hour * 3600 + minute * 60 + second - offsetSeconds;
+    return epochSecond * 1000 + millis;
+  }
+
+  /** {@code yyyy-MM-ddTHH:mm:ss.SSSZ}; sempre com milissegundos. */
+  public static String format(long epochMillis) {
+    long epochSecond = Math.floorDiv(epochMillis, 1000);
+    int millis = Math.floorMod(epochMillis, 1000);
+    long days = Math.floorDiv(epochSecond, 86_400);
+    int secondOfDay = Math.floorMod(epochSecond, 86_400);
+
+    // civil_from_days (H. Hinnant)
+    long z = days + 719_468;
+    long era = Math.floorDiv(z, 146_097);
+    long doe = z - era * 146_097;
+    long yoe = (doe - doe / 1460 + doe / 36_524 - doe / 146_096) / 365;
+    long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+    long mp = (5 * doy + 2) / 153;
+    int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+    int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+    long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+    if (year < 0 || year > 9999) return Instant.ofEpochMilli(epochMillis).toString();
+
+    byte[] b = new byte[24];
+    put(b, 0, (int) year, 4);
+    b[4] = '-';
+    put(b, 5, month, 2);
+    b[7] = '-';
+    put(b, 8, day, 2);
+    b[10] = 'T';
+    put(b, 11, secondOfDay / 3600, 2);
+    b[13] = ':';
+    put(b, 14, secondOfDay / 60 % 60, 2);
+    b[16] = ':';
+    put(b, 17, secondOfDay % 60, 2);
+    b[19] = '.';
+    put(b, 20, millis, 3);
+    b[23] = 'Z';
+    return new String(b, 0, 24, java.nio.charset.StandardCharsets.US_ASCII);
+  }
+
+  private static void put(byte[] b, int off, int value, int width) {
+    for (int i = off + width - 1; i >= off; i--) {
+      b[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+  }
+
+  private static int digits(byte[] s, int off, int n) {
+    int v = 0;
+    for (int i = off; i < off + n; i++) {
+      int d = s[i] - '0';
+      if (d < 0 || d > 9) return -1;
+      v = v * 10 + d;
+    }
+    return v;
+  }
+
+  private static int daysInMonth(int year, int month) {
+    return switch (month) {
+      case 2 -> (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+      case 4, 6, 9, 11 -> 30;
+      default -> 31;
+    };
+  }
+
+  // days_from_civil (H. Hinnant)
+  private static long daysFromCivil(int year, int month, int day) {
+    long y = month <= 2 ? year - 1 : year;
+    long era = Math.floorDiv(y, 400);
+    long yoe = y - era * 400;
+    long doy = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+    return era * 146_097 + doe - 719_468;
+  }
+}
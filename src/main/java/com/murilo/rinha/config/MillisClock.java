@@ -0,0 +1,27 @@
+package com.murilo.rinha.config;
+
+/**
+ * Relogio em milissegundos com o ISO do ms corrente ja renderizado: pagamentos que caem
+ * no mesmo ms reaproveitam a mesma string de {@code requestedAt}.
+ */
+public final class MillisClock {
+
+  public record Stamp(long millis, String iso) {}
+
+  private static volatile Stamp last = new Stamp(Long.MIN_VALUE, "");
+
+  private MillisClock() {}
+
+  public static long millis() {
+    return System.currentTimeMillis();
+  }
+
+  public static Stamp now() {
+    long ms = System.currentTimeMillis();
+    Stamp s = last;
+    if (s.millis() == ms) return s;
+    s = new Stamp(ms, IsoTime.format(ms));
+    last = s;
+    return s;
+  }
+}
@@ -1,12 +1,18 @@
 package com.murilo.rinha.config;
 
+import com.murilo.rinha.jfr.ConnectionBorrowedEvent;
+import com.murilo.rinha.metrics.Histogram;
+import com.murilo.rinha.metrics.MetricsRegistry;
+
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.SocketChannel;
 import java.util.Objects;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import static java.nio.charset.StandardCharsets.US_ASCII;
@@ -15,11 +21,17 @@ public final class MyUltraHttp11Client implements Closeable {
 
   private static final byte[] CRLFCRLF = new byte[]{'\r','\n','\r','\n'};
   private static final byte[] KEY_CL   = "Content-Length:".getBytes(US_ASCII);
+  // payload do processador tem ~130 bytes; maior que isso cai no writev com buffers heap
+  private static final int OUT_BODY_CAP = 1024;
+  private static final DeadlineWatchdog WATCHDOG = DeadlineWatchdog.shared();
 
   private final String host;
   private final int port;
   private final byte[] reqPrefix;
-  private final ArrayBlockingQueue<Conn> pool;
+  private final LinkedBlockingQueue<Conn> pool = new LinkedBlockingQueue<>();
+  /** Maximo de conexoes ociosas; borrow abre alem disso sob demanda, giveBack fecha o excedente. */
+  private volatile int poolSize;
+  private final Histogram borrowWait;
 
   public MyUltraHttp11Client(String host, int port, String path, int poolSize) throws IOException {
     this.host = Objects.requireNonNull(host);
@@ -30,20 +42,41 @@ public final class MyUltraHttp11Client implements Closeable {
         "Content-Type: application/json\r\n" +
         "Content-Length: ").getBytes(US_ASCII);
 
-    this.pool = new ArrayBlockingQueue<>(poolSize);
-    for (int i = 0; i < poolSize; i++) pool.offer(new Conn(connect(host, port), reqPrefix));
+    this.borrowWait = MetricsRegistry.global().histogram("rinha_http_borrow_seconds",
+        "Wait to borrow a pooled processor connection", "target", host + ":" + port);
+    this.poolSize = poolSize;
+    int connectTimeout = AppConfig.getProcessorMinTimeoutMs();
+    for (int i = 0; i < poolSize; i++) pool.offer(new Conn(connect(host, port, connectTimeout), reqPrefix));
   }
 
   public int postJson(byte[] body, boolean needBody) {
-    Conn c = borrow();
+    return postJson(body, needBody, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(AppConfig.getProcessorMinTimeoutMs()));
+  }
+
+  /**
+   * Prazo vale para connect, escrita e leitura. Estourou: a conexao e descartada e sobe
+   * {@link DeadlineExceededException} para o chamador decidir retry/failover.
+   */
+  public int postJson(byte[] body, boolean needBody, long deadlineNanos) {
+    long borrowStart = System.nanoTime();
+    Conn c = borrow(deadlineNanos);
+    borrowWait.recordSince(borrowStart);
+    boolean broken = true;
+    WATCHDOG.arm(c.guard, deadlineNanos);
     try {
-      c.prefix.rewind();
       int lenLen = asciiOfIntInto(body.length, c.lenBuf);
-      c.lenBB.clear().limit(lenLen);
-      c.crlf.rewind();
-
-      ByteBuffer bodyBB = ByteBuffer.wrap(body);
-      writeAll(c.ch, new ByteBuffer[]{ c.prefix, c.lenBB, c.crlf, bodyBB });
+      ByteBuffer out = c.out;
+      // prefixo gravado uma vez no buffer direto da conexao; so o resto muda por request
+      out.clear().position(reqPrefix.length);
+      if (out.remaining() >= lenLen + CRLFCRLF.length + body.length) {
+        out.put(c.lenBuf, 0, lenLen).put(CRLFCRLF).put(body).flip();
+        while (out.hasRemaining()) c.ch.write(out);
+      } else {
+        c.prefix.rewind();
+        c.lenBB.clear().limit(lenLen);
+        c.crlf.rewind();
+        writeAll(c.ch, new ByteBuffer[]{ c.prefix, c.lenBB, c.crlf, ByteBuffer.wrap(body) });
+      }
 
       c.hdr.clear();
       int status = readStatusLine(c);
@@ -58,13 +91,38 @@ public final class MyUltraHttp11Client implements Closeable {
           drainBody(c, headerEnd, contentLen);
         }
       }
+      broken = false;
       return status;
     } catch (IOException e) {
-      try { c.ch.close(); } catch (IOException ignore) {}
-      replace(c);
-      throw new RuntimeException();
+      if (c.guard.expired()) throw new DeadlineExceededException("Deadline exceeded talking to " + host + ":" + port);
+      throw new RuntimeException(e);
     } finally {
-      giveBack(c);
+      // disarm perdeu para a varredura: o canal ja esta sendo fechado, nao volta pro pool
+      if (!WATCHDOG.disarm(c.guard) || broken) discard(c);
+      else giveBack(c);
+    }
+  }
+
+  /**
+   * Muda o tamanho do pool em runtime. Encolher fecha as ociosas que sobram (as emprestadas
+   * fecham na devolucao); crescer abre as novas em background.
+   */
+  public void resize(int newSize) {
+    int old = poolSize;
+    poolSize = newSize;
+    Conn x;
+    while (pool.size() > newSize && (x = pool.poll()) != null) discard(x);
+    if (newSize > old) {
+      Thread.startVirtualThread(() -> {
+        int connectTimeout = AppConfig.getProcessorMinTimeoutMs();
+        for (int i = old; i < newSize && pool.size() < poolSize; i++) {
+          try {
+            giveBack(new Conn(connect(host, port, connectTimeout), reqPrefix));
+          } catch (IOException e) {
+            return; // o resto abre sob demanda no borrow
+          }
+        }
+      });
     }
   }
 
@@ -76,33 +134,60 @@ public final class MyUltraHttp11Client implements Closeable {
   }
 
 
-  private static SocketChannel connect(String host, int port) throws IOException {
+  private static SocketChannel connect(String host, int port, int timeoutMillis) throws IOException {
     SocketChannel ch = SocketChannel.open();
     ch.configureBlocking(true);
     ch.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
     ch.setOption(java.net.StandardSocketOptions.SO_KEEPALIVE, true);
-    ch.connect(new InetSocketAddress(host, port));
+    try {
+      ch.socket().connect(new InetSocketAddress(host, port), timeoutMillis);
+    } catch (IOException e) {
+      try { ch.close(); } catch (IOException ignore) {}
+      throw e;
+    }
     return ch;
   }
 
-  private Conn borrow() {
+  private Conn borrow(long deadlineNanos) {
+    ConnectionBorrowedEvent event = new ConnectionBorrowedEvent();
+    event.begin();
     try {
       Conn c = pool.poll(5, TimeUnit.MILLISECONDS);
-      if (c == null) c = new Conn(connect(host, port), reqPrefix);
+      if (c != null) {
+        commitBorrow(event, false);
+        return c;
+      }
+      long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+      if (remainingMillis <= 0) throw new DeadlineExceededException("Deadline exceeded waiting for " + host + ":" + port);
+      c = new Conn(connect(host, port, (int) Math.min(Integer.MAX_VALUE, remainingMillis)), reqPrefix);
+      commitBorrow(event, true);
       return c;
+    } catch (SocketTimeoutException e) {
+      throw new DeadlineExceededException("Deadline exceeded connecting to " + host + ":" + port);
+    } catch (DeadlineExceededException e) {
+      throw e;
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
   }
 
+  private void commitBorrow(ConnectionBorrowedEvent event, boolean opened) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.target = host + ":" + port;
+      event.opened = opened;
+      event.commit();
+    }
+  }
+
   private void giveBack(Conn c) {
-    if (!pool.offer(c)) {
+    if (pool.size() >= poolSize || !pool.offer(c)) {
       try { c.ch.close(); } catch (IOException ignore) {}
     }
   }
 
-  private void replace(Conn c) {
-    try { pool.offer(new Conn(connect(host, port), reqPrefix)); } catch (IOException ignore) {}
+  private static void discard(Conn c) {
+    try { c.ch.close(); } catch (IOException ignore) {}
   }
 
   private static void writeAll(SocketChannel ch, ByteBuffer[] arr) throws IOException {
@@ -121,8 +206,8 @@ public final class MyUltraHttp11Client implements Closeable {
   private static int readStatusLine(Conn c) throws IOException {
     int lineEnd = readUntil(c, (byte)'\n');
     ByteBuffer b = c.hdr;
-    int sp1 = indexOf(b, (byte)' ', 0, lineEnd);
-    int sp2 = indexOf(b, (byte)' ', sp1 + 1, lineEnd);
+    int sp1 = ByteScan.indexOf(b, (byte)' ', 0, lineEnd);
+    int sp2 = ByteScan.indexOf(b, (byte)' ', sp1 + 1, lineEnd);
     if (sp1 < 0 || sp2 < 0 || sp2 - sp1 < 4) return 500;
     int d1 = b.get(sp1 + 1) - '0';
     int d2 = b.get(sp1 + 2) - '0';
@@ -132,7 +217,9 @@ public final class MyUltraHttp11Client implements Closeable {
 
   private static int readHeadersUntilCrlfCrlf(Conn c) throws IOException {
     int end;
-    while ((end = indexOf(c.hdr, CRLFCRLF)) < 0) {
+    int scanFrom = 0;
+    while ((end = ByteScan.indexOfCrlfCrlf(c.hdr, scanFrom, c.hdr.position())) < 0) {
+      scanFrom = Math.max(0, c.hdr.position() - 3);
       int n = c.ch.read(c.hdr);
       if (n <= 0) throw new IOException("EOF reading headers");
     }
@@ -152,33 +239,21 @@ public final class MyUltraHttp11Client implements Closeable {
   }
 
   private static int readUntil(Conn c, byte terminal) throws IOException {
+    int scanFrom = 0;
     for (;;) {
-      int idx = indexOf(c.hdr, terminal, 0, c.hdr.position());
+      int idx = ByteScan.indexOf(c.hdr, terminal, scanFrom, c.hdr.position());
       if (idx >= 0) return idx;
+      scanFrom = c.hdr.position();
       int n = c.ch.read(c.hdr);
       if (n <= 0) throw new IOException("EOF");
     }
   }
 
-  private static int indexOf(ByteBuffer buf, byte target, int from, int to) {
-    int lim = Math.min(buf.position(), to);
-    for (int i = from; i < lim; i++) if (buf.get(i) == target) return i;
-    return -1;
-  }
-  private static int indexOf(ByteBuffer buf, byte[] pat) {
-    int lim = buf.position();
-    outer: for (int i = 0; i <= lim - pat.length; i++) {
-      for (int j = 0; j < pat.length; j++) if (buf.get(i + j) != pat[j]) continue outer;
-      return i;
-    }
-    return -1;
-  }
-
   private static int parseContentLengthAscii(ByteBuffer hdr, int headerEnd) {
     int p = 0;
     while (p < headerEnd) {
-      int ls = p, le = p;
-      while (le < headerEnd && hdr.get(le) != '\n') le++;
+      int ls = p, le = ByteScan.indexOf(hdr, (byte) '\n', p, headerEnd);
+      if (le < 0) le = headerEnd;
       if (le > ls && hdr.get(le - 1) == '\r') le--;
       if (le - ls >= KEY_CL.length && equalsIgnoreCaseAscii(hdr, ls, KEY_CL)) {
         int i = ls + KEY_CL.length;
@@ -217,14 +292,18 @@ public final class MyUltraHttp11Client implements Closeable {
     final ByteBuffer crlf;
     final byte[]     lenBuf = new byte[11];
     final ByteBuffer lenBB;
+    final ByteBuffer out;
+    final DeadlineWatchdog.Guard guard;
 
     Conn(SocketChannel ch, byte[] reqPrefix) {
       this.ch = ch;
-      this.hdr   = ByteBuffer.allocateDirect(1 * 512);
+      this.guard = new DeadlineWatchdog.Guard(ch);
+      this.hdr   = ByteBuffer.allocateDirect(1 * 512).order(ByteOrder.nativeOrder()); // getLong sem byte swap no ByteScan
       this.body  = ByteBuffer.allocateDirect(1 * 512);
       this.prefix= ByteBuffer.wrap(reqPrefix);
       this.crlf  = ByteBuffer.wrap(CRLFCRLF);
       this.lenBB = ByteBuffer.wrap(lenBuf);
+      this.out   = ByteBuffer.allocateDirect(reqPrefix.length + OUT_BODY_CAP).put(reqPrefix);
     }
   }
 }
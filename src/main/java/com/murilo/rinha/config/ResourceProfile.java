@@ -0,0 +1,182 @@
+package com.murilo.rinha.config;
+
+import com.murilo.rinha.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tamanhos derivados dos limites do container, para a mesma imagem rodar bem com 0.5 CPU e
+ * 140MB e numa maquina grande. Le cpu.max e memory.max do cgroup v2 uma vez no start; sem
+ * limite usa as CPUs visiveis e o heap maximo. Sao so os padroes dos getters do
+ * {@link AppConfig}: variavel de ambiente explicita sempre ganha.
+ *
+ * Modelo: do limite de memoria sai uma base fixa (runtime, codigo, stacks) e o resto e o
+ * orcamento, repartido em fatias com um custo estimado por unidade. O que depende de vazao
+ * (fila, workers, conexoes) escala com as CPUs e fica limitado pela sua fatia. Calibrado para
+ * reproduzir os valores escolhidos a mao em 0.5 CPU/140MB.
+ */
+public final class ResourceProfile {
+
+  private static final long MB = 1024 * 1024;
+  private static final long BASELINE_BYTES = 32 * MB;
+  private static final long MIN_BUDGET_BYTES = 16 * MB;
+
+  /** Corpo (~70 chars), QueuedPayment e no da fila. */
+  private static final int PAYMENT_BYTES = 256;
+  /** Buffers diretos do cliente e buffers do kernel de uma conexao com processador. */
+  private static final int PROCESSOR_CONNECTION_BYTES = 16 * 1024;
+  /** Buffer de header (8K) e buffers do kernel de uma conexao de entrada. */
+  private static final int INBOUND_CONNECTION_BYTES = 16 * 1024;
+
+  /** Fila dimensionada para esvaziar dentro do SLA da admissao: ~930 pagamentos/s por CPU. */
+  private static final int QUEUE_PER_CPU = 14_000;
+
+  public record Limits(double cpus, long memoryBytes, String source) {}
+
+  private static final class Holder {
+    static final ResourceProfile CURRENT = detect();
+  }
+
+  private final Limits limits;
+  private final long budgetBytes;
+  private final Map<String, Integer> sizes = new LinkedHashMap<>();
+
+  private ResourceProfile(Limits limits, long heapBytes, int processors) {
+    this.limits = limits;
+    this.budgetBytes = Math.max(MIN_BUDGET_BYTES, limits.memoryBytes() - BASELINE_BYTES);
+    double c = limits.cpus();
+    long queueMemory = Math.min(budgetBytes, heapBytes) / 4;
+
+    sizes.put("RINHA_DLQ_BUFFER_SIZE", (int) Math.min(Math.round(c * QUEUE_PER_CPU), queueMemory / PAYMENT_BYTES));
+    sizes.put("RINHA_DLQ_WORKER_NUM", (int) Math.max(1, Math.round(c * 2)));
+    sizes.put("RINHA_PROCESSOR_POOL_SIZE", (int) Math.min(clamp(Math.round(c * 512), 32, 4096),
+        budgetBytes / 10 / ((long) PROCESSOR_CONNECTION_BYTES * Math.max(1, processors))));
+    sizes.put("RINHA_INLINE_MAX_IN_FLIGHT", (int) clamp(Math.round(c * 64), 8, 1024));
+    sizes.put("RINHA_MAX_CONNECTIONS", (int) Math.min(clamp(Math.round(c * 2048), 256, 65_536),
+        Math.max(64, budgetBytes * 15 / 100 / INBOUND_CONNECTION_BYTES)));
+    int bodyBuffers = (int) clamp(Math.round(c * 32), 4, 256);
+    sizes.put("RINHA_BODY_BUFFERS", bodyBuffers);
+    sizes.put("RINHA_BODY_BUFFER_BYTES",
+        (int) clamp(Long.highestOneBit(budgetBytes / 50 / bodyBuffers), 8 * 1024, 64 * 1024));
+    sizes.put("RINHA_DEDUPE_MEMORY_BYTES", (int) clamp(Long.highestOneBit(budgetBytes / 50), 256 * 1024, 64 * MB));
+  }
+
+  public static ResourceProfile current() {
+    return Holder.CURRENT;
+  }
+
+  private static ResourceProfile detect() {
+    long heap = Runtime.getRuntime().maxMemory();
+    int processors = (int) Arrays.stream(AppConfig.getProcessors().split(",")).filter(s -> !s.isBlank()).count();
+    Limits limits = switch (AppConfig.getProperty("RINHA_RESOURCE_PROFILE", "auto")) {
+      // ponto de calibracao: os valores fixos de antes
+      case "off" -> new Limits(0.5, 140 * MB, "fixed");
+      default -> readLimits(Path.of(AppConfig.getProperty("RINHA_CGROUP_DIR", "/sys/fs/cgroup")), heap);
+    };
+    return new ResourceProfile(limits, heap, processors);
+  }
+
+  /** Le o cgroup v2 do processo (o proprio no /proc/self/cgroup, senao a raiz montada). */
+  static Limits readLimits(Path root, long heapBytes) {
+    int visible = Runtime.getRuntime().availableProcessors();
+    Path dir = root;
+    try {
+      for (String line : Files.readAllLines(Path.of("/proc/self/cgroup"))) {
+        if (line.startsWith("0::/") && line.length() > 4 && Files.isDirectory(root.resolve(line.substring(4)))) {
+          dir = root.resolve(line.substring(4));
+        }
+      }
+    } catch (IOException | RuntimeException ignore) {}
+
+    double cpus = visible;
+    long memory = -1;
+    String[] cpuMax = readFirstLine(dir.resolve("cpu.max"));
+    if (cpuMax != null && cpuMax.length == 2 && !cpuMax[0].equals("max")) {
+      try {
+        double quota = Long.parseLong(cpuMax[0]) / (double) Long.parseLong(cpuMax[1]);
+        if (quota > 0) cpus = Math.min(visible, quota);
+      } catch (NumberFormatException ignore) {}
+    }
+    String[] memoryMax = readFirstLine(dir.resolve("memory.max"));
+    if (memoryMax != null && !memoryMax[0].equals("max")) {
+      try {
+        memory = Long.parseLong(memoryMax[0]);
+      } catch (NumberFormatException ignore) {}
+    }
+    String source = cpuMax == null && memoryMax == null ? "host" : "cgroup:" + dir;
+    return new Limits(cpus, memory > 0 ? memory : heapBytes + BASELINE_BYTES, source);
+  }
+
+  private static String[] readFirstLine(Path file) {
+    try {
+      String line = Files.readString(file).trim();
+      return line.isEmpty() ? null : line.split("\\s+");
+    } catch (IOException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static long clamp(long v, long min, long max) {
+    return Math.max(min, Math.min(max, v));
+  }
+
+  public Limits limits() {
+    return limits;
+  }
+
+  public int dlqBufferSize() {
+    return sizes.get("RINHA_DLQ_BUFFER_SIZE");
+  }
+
+  public int dlqWorkers() {
+    return sizes.get("RINHA_DLQ_WORKER_NUM");
+  }
+
+  public int processorPoolSize() {
+    return sizes.get("RINHA_PROCESSOR_POOL_SIZE");
+  }
+
+  public int inlineMaxInFlight() {
+    return sizes.get("RINHA_INLINE_MAX_IN_FLIGHT");
+  }
+
+  public int maxConnections() {
+    return sizes.get("RINHA_MAX_CONNECTIONS");
+  }
+
+  public int bodyBuffers() {
+    return sizes.get("RINHA_BODY_BUFFERS");
+  }
+
+  public int bodyBufferBytes() {
+    return sizes.get("RINHA_BODY_BUFFER_BYTES");
+  }
+
+  public int dedupeMemoryBytes() {
+    return sizes.get("RINHA_DEDUPE_MEMORY_BYTES");
+  }
+
+  /** Loga os limites e o valor efetivo de cada tamanho (derivado ou override) e exporta como gauges. */
+  public void publish() {
+    MetricsRegistry m = MetricsRegistry.global();
+    m.gauge("rinha_resource_cpus", "CPUs this instance sized itself for", limits::cpus);
+    m.gauge("rinha_resource_memory_bytes", "Memory limit this instance sized itself for", limits::memoryBytes);
+    StringBuilder sb = new StringBuilder("Resource profile (").append(limits.source()).append("): ")
+        .append(String.format("%.2f", limits.cpus())).append(" CPUs, ").append(limits.memoryBytes() / MB)
+        .append("MB, budget ").append(budgetBytes / MB).append("MB;");
+    sizes.forEach((key, derived) -> {
+      boolean override = AppConfig.getProperty(key, null) != null;
+      int effective = AppConfig.getIntProperty(key, derived);
+      m.gauge("rinha_resource_setting", "Effective size per setting and where it came from", () -> effective,
+          "setting", key, "source", override ? "override" : "profile");
+      sb.append(' ').append(key).append('=').append(effective);
+      if (override) sb.append(" (override, profile ").append(derived).append(')');
+    });
+    System.out.println(sb);
+  }
+}
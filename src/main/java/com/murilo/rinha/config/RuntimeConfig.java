@@ -0,0 +1,143 @@
+package com.murilo.rinha.config;
+
+import com.murilo.rinha.metrics.Counter;
+import com.murilo.rinha.metrics.MetricsRegistry;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Ajustes que podem mudar com o processo rodando (rota /admin/config). Os valores iniciais
+ * vem das mesmas variaveis de ambiente de antes; cada chave do update e o nome da variavel.
+ *
+ * O snapshot e imutavel e trocado inteiro: o caminho quente le {@link #current()} (uma
+ * leitura volatile, sem lock) e sempre ve um conjunto coerente. Quem precisa agir na troca
+ * (pool, workers) se registra em {@link #onChange}.
+ */
+public final class RuntimeConfig {
+
+  public record Tuning(int dlqWorkers, int dlqBufferSize, int dlqBatch, int dlqIdleMs, int processorPoolSize,
+      int healthResetMs, int queueEscalateAgeMs) {
+
+    public Tuning {
+      require("RINHA_DLQ_WORKER_NUM", dlqWorkers, 1, 1024);
+      require("RINHA_DLQ_BUFFER_SIZE", dlqBufferSize, 1, 10_000_000);
+      require("RINHA_DLQ_BATCH", dlqBatch, 1, 1_000_000);
+      require("RINHA_DLQ_IDLE_MS", dlqIdleMs, 0, 60_000);
+      require("RINHA_PROCESSOR_POOL_SIZE", processorPoolSize, 1, 4096);
+      require("RINHA_HEALTH_RESET_MS", healthResetMs, 1, 600_000);
+      require("RINHA_QUEUE_ESCALATE_AGE_MS", queueEscalateAgeMs, 0, 600_000);
+    }
+
+    Tuning with(String key, int v) {
+      return switch (key) {
+        case "RINHA_DLQ_WORKER_NUM" -> new Tuning(v, dlqBufferSize, dlqBatch, dlqIdleMs, processorPoolSize,
+            healthResetMs, queueEscalateAgeMs);
+        case "RINHA_DLQ_BUFFER_SIZE" -> new Tuning(dlqWorkers, v, dlqBatch, dlqIdleMs, processorPoolSize,
+            healthResetMs, queueEscalateAgeMs);
+        case "RINHA_DLQ_BATCH" -> new Tuning(dlqWorkers, dlqBufferSize, v, dlqIdleMs, processorPoolSize,
+            healthResetMs, queueEscalateAgeMs);
+        case "RINHA_DLQ_IDLE_MS" -> new Tuning(dlqWorkers, dlqBufferSize, dlqBatch, v, processorPoolSize,
+            healthResetMs, queueEscalateAgeMs);
+        case "RINHA_PROCESSOR_POOL_SIZE" -> new Tuning(dlqWorkers, dlqBufferSize, dlqBatch, dlqIdleMs, v,
+            healthResetMs, queueEscalateAgeMs);
+        case "RINHA_HEALTH_RESET_MS" -> new Tuning(dlqWorkers, dlqBufferSize, dlqBatch, dlqIdleMs, processorPoolSize,
+            v, queueEscalateAgeMs);
+        case "RINHA_QUEUE_ESCALATE_AGE_MS" -> new Tuning(dlqWorkers, dlqBufferSize, dlqBatch, dlqIdleMs,
+            processorPoolSize, healthResetMs, v);
+        default -> throw new IllegalArgumentException("Unknown setting: " + key);
+      };
+    }
+
+    public String toJson(long version) {
+      return "{\"version\":" + version
+          + ",\"RINHA_DLQ_WORKER_NUM\":" + dlqWorkers
+          + ",\"RINHA_DLQ_BUFFER_SIZE\":" + dlqBufferSize
+          + ",\"RINHA_DLQ_BATCH\":" + dlqBatch
+          + ",\"RINHA_DLQ_IDLE_MS\":" + dlqIdleMs
+          + ",\"RINHA_PROCESSOR_POOL_SIZE\":" + processorPoolSize
+          + ",\"RINHA_HEALTH_RESET_MS\":" + healthResetMs
+          + ",\"RINHA_QUEUE_ESCALATE_AGE_MS\":" + queueEscalateAgeMs
+          + "}";
+    }
+
+    private static void require(String key, int v, int min, int max) {
+      if (v < min || v > max) throw new IllegalArgumentException(key + " must be in [" + min + ", " + max + "]");
+    }
+  }
+
+  private record Versioned(Tuning tuning, long version) {}
+
+  private static final AtomicReference<Versioned> CURRENT = new AtomicReference<>(new Versioned(fromEnv(), 0));
+  private static final List<Consumer<Tuning>> LISTENERS = new CopyOnWriteArrayList<>();
+  private static final Counter APPLIED;
+  private static final Counter REJECTED;
+
+  static {
+    MetricsRegistry m = MetricsRegistry.global();
+    String help = "Runtime config updates by outcome";
+    APPLIED = m.counter("rinha_config_updates_total", help, "result", "applied");
+    REJECTED = m.counter("rinha_config_updates_total", help, "result", "rejected");
+    m.gauge("rinha_config_version", "Version of the runtime config snapshot in use", () -> CURRENT.get().version);
+  }
+
+  private RuntimeConfig() {}
+
+  public static Tuning current() {
+    return CURRENT.get().tuning;
+  }
+
+  public static String json() {
+    Versioned v = CURRENT.get();
+    return v.tuning.toJson(v.version);
+  }
+
+  /** {@code listener} roda a cada troca, na thread de quem fez o update. */
+  public static void onChange(Consumer<Tuning> listener) {
+    LISTENERS.add(listener);
+  }
+
+  /**
+   * Aplica tudo ou nada: qualquer chave desconhecida ou valor fora da faixa rejeita o update
+   * inteiro com {@link IllegalArgumentException}.
+   */
+  public static synchronized String update(Map<String, String> changes) {
+    if (changes.isEmpty()) return json();
+    Versioned prev = CURRENT.get();
+    Tuning next = prev.tuning;
+    try {
+      for (Map.Entry<String, String> e : changes.entrySet()) {
+        int value;
+        try {
+          value = Integer.parseInt(e.getValue().trim());
+        } catch (NumberFormatException nfe) {
+          throw new IllegalArgumentException(e.getKey() + " is not an integer");
+        }
+        next = next.with(e.getKey(), value);
+      }
+    } catch (IllegalArgumentException e) {
+      REJECTED.inc();
+      throw e;
+    }
+    Versioned applied = new Versioned(next, prev.version + 1);
+    CURRENT.set(applied);
+    APPLIED.inc();
+    for (Consumer<Tuning> l : LISTENERS) {
+      try {
+        l.accept(next);
+      } catch (RuntimeException e) {
+        System.err.println("Runtime config listener failed: " + e);
+      }
+    }
+    return next.toJson(applied.version);
+  }
+
+  private static Tuning fromEnv() {
+    return new Tuning(AppConfig.getDlqWorkerNum(), AppConfig.getDlqBufferSize(), AppConfig.getDlqBatch(),
+        AppConfig.getDlqIdleMs(), AppConfig.getProcessorPoolSize(), AppConfig.getHealthResetMs(),
+        AppConfig.getQueueEscalateAgeMs());
+  }
+}
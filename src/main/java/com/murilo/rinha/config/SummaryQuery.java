@@ -0,0 +1,102 @@
+package com.murilo.rinha.config;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Le {@code from}/{@code to} da query de /payments-summary direto do buffer do header.
+ * Uma instancia por conexao: o scratch de decodificacao (%XX) e reaproveitado.
+ */
+public final class SummaryQuery {
+
+  private static final int MAX_VALUE = 64;
+
+  private final byte[] scratch = new byte[MAX_VALUE];
+  public long from;
+  public long to;
+  /** Do {@code step} do series, em ms; 0 se ausente. */
+  public long step;
+
+  /**
+   * @param start posicao do {@code ?} (ou {@code end} se nao ha query)
+   * @return false se algo foge do caso simples (valor que o parser rapido nao entende,
+   *     chave codificada); quem chama refaz pelo caminho antigo
+   */
+  public boolean parse(ByteBuffer buf, int start, int end, long defaultFrom, long defaultTo) {
+    from = defaultFrom;
+    to = defaultTo;
+    step = 0;
+    int p = start < end && buf.get(start) == '?' ? start + 1 : end;
+    while (p < end) {
+      int amp = ByteScan.indexOf(buf, (byte) '&', p, end);
+      if (amp < 0) amp = end;
+      int eq = ByteScan.indexOf(buf, (byte) '=', p, amp);
+      int keyEnd = eq < 0 ? amp : eq;
+      for (int i = p; i < keyEnd; i++) {
+        byte c = buf.get(i);
+        if (c == '%' || c == '+') return false; // chave codificada: deixa para o URLDecoder
+      }
+      if (eq < 0) {
+        if (amp - p == 4 || amp - p == 2) return false; // "from"/"to" sem valor
+      } else {
+        boolean isFrom = eq - p == 4 && buf.get(p) == 'f' && buf.get(p + 1) == 'r' && buf.get(p + 2) == 'o'
+            && buf.get(p + 3) == 'm';
+        boolean isTo = eq - p == 2 && buf.get(p) == 't' && buf.get(p + 1) == 'o';
+        boolean isStep = eq - p == 4 && buf.get(p) == 's' && buf.get(p + 1) == 't' && buf.get(p + 2) == 'e'
+            && buf.get(p + 3) == 'p';
+        if (isStep) {
+          int len = decode(buf, eq + 1, amp);
+          step = len < 0 ? -1 : parseStep(scratch, 0, len);
+          if (step < 0) return false;
+        } else if (isFrom || isTo) {
+          int len = decode(buf, eq + 1, amp);
+          long millis = len < 0 ? IsoTime.INVALID : IsoTime.parseMillis(scratch, 0, len);
+          if (millis == IsoTime.INVALID) return false;
+          if (isFrom) from = millis;
+          else to = millis;
+        }
+      }
+      p = amp + 1;
+    }
+    return true;
+  }
+
+  /** {@code 500}, {@code 500ms}, {@code 10s}, {@code 1m}, {@code 1h}; sem unidade e ms. @return -1 se invalido ou zero */
+  public static long parseStep(byte[] s, int from, int to) {
+    int p = from;
+    long v = 0;
+    while (p < to && s[p] >= '0' && s[p] <= '9') {
+      if (v > Long.MAX_VALUE / 3_600_000 / 10) return -1;
+      v = v * 10 + (s[p++] - '0');
+    }
+    if (p == from || v == 0) return -1;
+    int unitLen = to - p;
+    if (unitLen == 0 || (unitLen == 2 && s[p] == 'm' && s[p + 1] == 's')) return v;
+    if (unitLen != 1) return -1;
+    return switch (s[p]) {
+      case 's' -> v * 1000;
+      case 'm' -> v * 60_000;
+      case 'h' -> v * 3_600_000;
+      default -> -1;
+    };
+  }
+
+  /** Decodifica como URLDecoder ({@code %XX}, {@code +} vira espaco) para o scratch. */
+  private int decode(ByteBuffer buf, int from, int to) {
+    int n = 0;
+    for (int i = from; i < to; i++) {
+      if (n == MAX_VALUE) return -1;
+      byte c = buf.get(i);
+      if (c == '%') {
+        if (i + 2 >= to) return -1;
+        int hi = Character.digit(buf.get(i + 1), 16), lo = Character.digit(buf.get(i + 2), 16);
+        if (hi < 0 || lo < 0) return -1;
+        c = (byte) (hi << 4 | lo);
+        i += 2;
+      } else if (c == '+') {
+        c = ' ';
+      }
+      scratch[n++] = c;
+    }
+    return n;
+  }
+}
@@ -0,0 +1,104 @@
+package com.murilo.rinha.config.epoll;
+
+import com.murilo.rinha.metrics.Counter;
+import com.murilo.rinha.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_INT_UNALIGNED;
+
+/**
+ * Um epoll para todos os fds do transporte. Cada fd entra uma vez, edge-triggered, so com
+ * leitura; escrita so passa a ser observada no primeiro EAGAIN (senao cada resposta lida
+ * pelo cliente acordaria o poller de novo). Nao ha epoll_ctl por espera. A thread do poller
+ * so acorda quem esta parado no fd: um epoll_wait devolve ate {@link #MAX_EVENTS} eventos.
+ */
+final class EpollPoller {
+
+  private static final int MAX_EVENTS = 256;
+  private static final int INTEREST = Native.EPOLLIN | Native.EPOLLRDHUP | Native.EPOLLET;
+
+  private static final class Holder {
+    static final EpollPoller INSTANCE = start();
+  }
+
+  private final int epfd;
+  private final Map<Integer, Fd> registered = new ConcurrentHashMap<>();
+  private final MemorySegment events = Arena.global().allocate(Native.EVENT_SIZE * MAX_EVENTS, 8);
+  private final MemorySegment waitErrno = Native.errnoArea(Arena.global());
+  private final Counter wakeups;
+  private final Counter delivered;
+
+  private EpollPoller(int epfd) {
+    this.epfd = epfd;
+    MetricsRegistry m = MetricsRegistry.global();
+    this.wakeups = m.counter("rinha_epoll_wakeups_total", "epoll_wait calls that returned events");
+    this.delivered = m.counter("rinha_epoll_events_total", "Readiness events delivered by epoll_wait");
+  }
+
+  static EpollPoller get() {
+    return Holder.INSTANCE;
+  }
+
+  private static EpollPoller start() {
+    int epfd = Native.epollCreate(Native.errnoArea(Arena.global()));
+    if (epfd < 0) throw new IllegalStateException("epoll_create1 failed: errno " + -epfd);
+    EpollPoller poller = new EpollPoller(epfd);
+    Thread.ofPlatform().daemon().name("epoll-poller").start(poller::run);
+    return poller;
+  }
+
+  void register(Fd fd) throws IOException {
+    registered.put(fd.fd, fd);
+    try {
+      control(Native.EPOLL_CTL_ADD, fd, INTEREST);
+    } catch (IOException e) {
+      registered.remove(fd.fd, fd);
+      throw e;
+    }
+  }
+
+  /** Passa a observar escrita; o MOD ja reporta o estado atual se o fd estiver gravavel. */
+  void watchWrites(Fd fd) throws IOException {
+    control(Native.EPOLL_CTL_MOD, fd, INTEREST | Native.EPOLLOUT);
+  }
+
+  private void control(int op, Fd fd, int interest) throws IOException {
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment event = arena.allocate(Native.EVENT_SIZE, 8);
+      event.set(JAVA_INT, 0, interest);
+      event.set(JAVA_INT_UNALIGNED, Native.EVENT_DATA, fd.fd);
+      int r = Native.epollCtl(Native.errnoArea(arena), epfd, op, fd.fd, event);
+      if (r < 0) throw new IOException("epoll_ctl failed: errno " + -r);
+    }
+  }
+
+  /** Antes do close do fd: o numero pode voltar num accept logo em seguida. */
+  void deregister(Fd fd) {
+    registered.remove(fd.fd, fd);
+  }
+
+  private void run() {
+    for (;;) {
+      int n = Native.epollWait(waitErrno, epfd, events, MAX_EVENTS, -1);
+      if (n < 0) {
+        if (n == -Native.EINTR) continue;
+        System.err.println("epoll_wait failed: errno " + -n);
+        return;
+      }
+      wakeups.inc();
+      delivered.add(n);
+      for (int i = 0; i < n; i++) {
+        long base = i * Native.EVENT_SIZE;
+        // evento de um fd ja fechado (ou reusado) so gera uma tentativa a mais que da EAGAIN
+        Fd fd = registered.get(events.get(JAVA_INT_UNALIGNED, base + Native.EVENT_DATA));
+        if (fd != null) fd.ready(events.get(JAVA_INT_UNALIGNED, base));
+      }
+    }
+  }
+}
@@ -0,0 +1,239 @@
+package com.murilo.rinha.config.epoll;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AlreadyConnectedException;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+
+/**
+ * Conexao aceita pelo {@link EpollUnixListener}. E um {@link SocketChannel} bloqueante para
+ * quem usa (handler, watchdog, ChunkedResponse), mas por baixo e read/write direto no fd
+ * nao bloqueante e, no EAGAIN, espera o evento do {@link EpollPoller} sem syscall extra.
+ *
+ * Buffers diretos (o header e o corpo do pool, as respostas prontas) vao direto para a
+ * syscall; buffers de heap passam por uma area off-heap da conexao, alocada uma vez.
+ * Escrita com varios buffers junta tudo nessa area e sai num write so.
+ */
+public final class EpollSocketChannel extends SocketChannel {
+
+  private static final int SCRATCH_BYTES = 4096;
+
+  private final Fd fd;
+  private final UnixDomainSocketAddress local;
+  private final Arena arena = Arena.ofAuto();
+  private final MemorySegment readErrno = Native.errnoArea(arena);
+  private final MemorySegment writeErrno = Native.errnoArea(arena);
+  private final MemorySegment writeScratch = arena.allocate(SCRATCH_BYTES, 8);
+  private MemorySegment readScratch;
+
+  EpollSocketChannel(int fd, EpollPoller poller, UnixDomainSocketAddress local) throws IOException {
+    super(null);
+    this.fd = new Fd(fd, poller);
+    this.local = local;
+  }
+
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+    int len = dst.remaining();
+    if (len == 0) return 0;
+    if (!fd.enter()) throw new ClosedChannelException();
+    try {
+      for (;;) {
+        int seen = fd.readEvents();
+        long n;
+        if (dst.isDirect()) {
+          n = Native.read(readErrno, fd.fd, MemorySegment.ofBuffer(dst), len);
+          if (n > 0) dst.position(dst.position() + (int) n);
+        } else {
+          if (readScratch == null) readScratch = arena.allocate(SCRATCH_BYTES, 8);
+          n = Native.read(readErrno, fd.fd, readScratch, Math.min(len, SCRATCH_BYTES));
+          if (n > 0) dst.put(readScratch.asSlice(0, n).asByteBuffer());
+        }
+        if (n > 0) return (int) n;
+        if (n == 0) return -1;
+        if (n == -Native.EINTR) continue;
+        if (n != -Native.EAGAIN) throw new IOException("read failed: errno " + -n);
+        fd.awaitReadable(seen);
+        if (!fd.isOpen()) throw new AsynchronousCloseException();
+      }
+    } finally {
+      fd.exit();
+    }
+  }
+
+  @Override
+  public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+    for (int i = offset; i < offset + length; i++) {
+      if (dsts[i].hasRemaining()) return read(dsts[i]);
+    }
+    return 0;
+  }
+
+  /** Bloqueante: so volta depois de escrever tudo. */
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    int len = src.remaining();
+    if (!src.isDirect()) return (int) write(new ByteBuffer[]{src}, 0, 1);
+    if (!fd.enter()) throw new ClosedChannelException();
+    try {
+      writeFully(MemorySegment.ofBuffer(src), len);
+      src.position(src.limit());
+      return len;
+    } finally {
+      fd.exit();
+    }
+  }
+
+  @Override
+  public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+    if (!fd.enter()) throw new ClosedChannelException();
+    try {
+      long total = 0;
+      int filled = 0;
+      for (int i = offset; i < offset + length; i++) {
+        ByteBuffer src = srcs[i];
+        int len = src.remaining();
+        if (len <= SCRATCH_BYTES - filled) {
+          MemorySegment.copy(MemorySegment.ofBuffer(src), 0, writeScratch, filled, len);
+          filled += len;
+        } else {
+          if (filled > 0) writeFully(writeScratch, filled);
+          filled = 0;
+          writeLarge(src, len);
+        }
+        src.position(src.limit());
+        total += len;
+      }
+      if (filled > 0) writeFully(writeScratch, filled);
+      return total;
+    } finally {
+      fd.exit();
+    }
+  }
+
+  private void writeLarge(ByteBuffer src, int len) throws IOException {
+    if (src.isDirect()) {
+      writeFully(MemorySegment.ofBuffer(src), len);
+      return;
+    }
+    MemorySegment heap = MemorySegment.ofBuffer(src);
+    for (long off = 0; off < len; off += SCRATCH_BYTES) {
+      int chunk = (int) Math.min(SCRATCH_BYTES, len - off);
+      MemorySegment.copy(heap, off, writeScratch, 0, chunk);
+      writeFully(writeScratch, chunk);
+    }
+  }
+
+  private void writeFully(MemorySegment buf, long len) throws IOException {
+    long off = 0;
+    while (off < len) {
+      int seen = fd.writeEvents();
+      long n = Native.write(writeErrno, fd.fd, buf.asSlice(off), len - off);
+      if (n >= 0) {
+        off += n;
+        continue;
+      }
+      if (n == -Native.EINTR) continue;
+      if (n != -Native.EAGAIN) throw new IOException("write failed: errno " + -n);
+      fd.awaitWritable(seen);
+      if (!fd.isOpen()) throw new AsynchronousCloseException();
+    }
+  }
+
+  @Override
+  protected void implCloseSelectableChannel() {
+    fd.close();
+  }
+
+  @Override
+  protected void implConfigureBlocking(boolean block) {
+    if (!block) throw new UnsupportedOperationException("epoll channel is always blocking");
+  }
+
+  @Override
+  public SocketChannel shutdownInput() throws IOException {
+    if (!fd.enter()) throw new ClosedChannelException();
+    try {
+      Native.shutdown(fd.fd, Native.SHUT_RD);
+    } finally {
+      fd.exit();
+    }
+    return this;
+  }
+
+  @Override
+  public SocketChannel shutdownOutput() throws IOException {
+    if (!fd.enter()) throw new ClosedChannelException();
+    try {
+      Native.shutdown(fd.fd, Native.SHUT_WR);
+    } finally {
+      fd.exit();
+    }
+    return this;
+  }
+
+  @Override
+  public boolean isConnected() {
+    return isOpen();
+  }
+
+  @Override
+  public boolean isConnectionPending() {
+    return false;
+  }
+
+  @Override
+  public boolean connect(SocketAddress remote) {
+    throw new AlreadyConnectedException();
+  }
+
+  @Override
+  public boolean finishConnect() {
+    return true;
+  }
+
+  @Override
+  public SocketAddress getRemoteAddress() {
+    // peer de UDS aceito nao tem nome
+    return UnixDomainSocketAddress.of("");
+  }
+
+  @Override
+  public SocketAddress getLocalAddress() {
+    return local;
+  }
+
+  @Override
+  public SocketChannel bind(SocketAddress local) {
+    throw new AlreadyConnectedException();
+  }
+
+  @Override
+  public <T> SocketChannel setOption(SocketOption<T> name, T value) {
+    throw new UnsupportedOperationException("'" + name + "' not supported");
+  }
+
+  @Override
+  public <T> T getOption(SocketOption<T> name) {
+    throw new UnsupportedOperationException("'" + name + "' not supported");
+  }
+
+  @Override
+  public Set<SocketOption<?>> supportedOptions() {
+    return Set.of();
+  }
+
+  @Override
+  public Socket socket() {
+    throw new UnsupportedOperationException("epoll channel has no Socket adaptor");
+  }
+}
@@ -0,0 +1,87 @@
+package com.murilo.rinha.config.epoll;
+
+import com.murilo.rinha.config.HttpListeners;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+/**
+ * Listener UDS com socket/bind/listen/accept4 via FFM e as conexoes no {@link EpollPoller}.
+ * Carregado por reflexao pelo {@link HttpListeners} quando RINHA_TRANSPORT=epoll; so existe
+ * no build com o perfil ffm e precisa de --enable-preview no Java 21.
+ */
+public final class EpollUnixListener implements HttpListeners.NativeListener {
+
+  private static final int BACKLOG = 1024;
+
+  private final Fd fd;
+  private final EpollPoller poller;
+  private final UnixDomainSocketAddress local;
+  private final MemorySegment acceptErrno = Native.errnoArea(Arena.ofAuto());
+
+  private EpollUnixListener(Fd fd, EpollPoller poller, UnixDomainSocketAddress local) {
+    this.fd = fd;
+    this.poller = poller;
+    this.local = local;
+  }
+
+  public static EpollUnixListener open(Path path) throws IOException {
+    if (!System.getProperty("os.name").equals("Linux")) throw new UnsupportedOperationException("epoll needs Linux");
+    byte[] name = path.toString().getBytes(StandardCharsets.UTF_8);
+    if (name.length >= Native.SOCKADDR_UN_SIZE - 2) throw new IOException("Socket path too long: " + path);
+    EpollPoller poller = EpollPoller.get();
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment errno = Native.errnoArea(arena);
+      int s = Native.socket(errno, Native.AF_UNIX, Native.SOCK_STREAM | Native.SOCK_NONBLOCK | Native.SOCK_CLOEXEC);
+      if (s < 0) throw new IOException("socket failed: errno " + -s);
+      MemorySegment addr = arena.allocate(Native.SOCKADDR_UN_SIZE, 2);
+      addr.set(JAVA_SHORT, 0, (short) Native.AF_UNIX);
+      MemorySegment.copy(name, 0, addr, JAVA_BYTE, 2, name.length);
+      int r = Native.bind(errno, s, addr);
+      if (r == 0) r = Native.listen(errno, s, BACKLOG);
+      if (r < 0) {
+        Native.close(s);
+        throw new IOException("bind/listen on " + path + " failed: errno " + -r);
+      }
+      return new EpollUnixListener(new Fd(s, poller), poller, UnixDomainSocketAddress.of(path));
+    }
+  }
+
+  @Override
+  public SocketChannel accept() throws IOException {
+    if (!fd.enter()) throw new ClosedChannelException();
+    try {
+      for (;;) {
+        int seen = fd.readEvents();
+        int c = Native.accept4(acceptErrno, fd.fd, Native.SOCK_NONBLOCK | Native.SOCK_CLOEXEC);
+        if (c >= 0) return new EpollSocketChannel(c, poller, local);
+        if (c == -Native.EINTR || c == -Native.ECONNABORTED) continue;
+        if (c != -Native.EAGAIN) throw new IOException("accept4 failed: errno " + -c);
+        fd.awaitReadable(seen);
+        if (!fd.isOpen()) throw new AsynchronousCloseException();
+      }
+    } finally {
+      fd.exit();
+    }
+  }
+
+  @Override
+  public boolean isOpen() {
+    return fd.isOpen();
+  }
+
+  @Override
+  public void close() {
+    fd.close();
+  }
+}
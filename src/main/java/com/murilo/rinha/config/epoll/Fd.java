@@ -0,0 +1,108 @@
+package com.murilo.rinha.config.epoll;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Um fd nao bloqueante registrado no {@link EpollPoller}, com no maximo uma thread lendo e
+ * uma escrevendo. Quem recebe EAGAIN espera o proximo evento pelo contador da direcao: o
+ * valor e lido antes da syscall, entao uma borda que chegue no meio nao se perde.
+ *
+ * O close pode vir de outra thread (watchdog): marca fechado, acorda quem espera e so
+ * libera o numero do fd quando a ultima syscall em andamento termina.
+ */
+final class Fd {
+
+  private static final int CLOSED = 1, USER = 2;
+
+  final int fd;
+  private final EpollPoller poller;
+  private final AtomicInteger state = new AtomicInteger();
+  private final AtomicInteger readEvents = new AtomicInteger();
+  private final AtomicInteger writeEvents = new AtomicInteger();
+  private volatile Thread reader;
+  private volatile Thread writer;
+  private boolean watchingWrites;
+
+  Fd(int fd, EpollPoller poller) throws IOException {
+    this.fd = fd;
+    this.poller = poller;
+    try {
+      poller.register(this);
+    } catch (IOException e) {
+      Native.close(fd);
+      throw e;
+    }
+  }
+
+  boolean isOpen() {
+    return (state.get() & CLOSED) == 0;
+  }
+
+  /** Entra numa syscall; false se ja foi fechado. */
+  boolean enter() {
+    for (;;) {
+      int s = state.get();
+      if ((s & CLOSED) != 0) return false;
+      if (state.compareAndSet(s, s + USER)) return true;
+    }
+  }
+
+  void exit() {
+    if (state.addAndGet(-USER) == CLOSED) release();
+  }
+
+  void close() {
+    int s;
+    do {
+      s = state.get();
+      if ((s & CLOSED) != 0) return;
+    } while (!state.compareAndSet(s, s | CLOSED));
+    LockSupport.unpark(reader);
+    LockSupport.unpark(writer);
+    if (s == 0) release();
+  }
+
+  private void release() {
+    poller.deregister(this);
+    Native.shutdown(fd, Native.SHUT_RDWR);
+    Native.close(fd);
+  }
+
+  int readEvents() {
+    return readEvents.get();
+  }
+
+  int writeEvents() {
+    return writeEvents.get();
+  }
+
+  void awaitReadable(int seen) {
+    reader = Thread.currentThread();
+    while (readEvents.get() == seen && isOpen()) LockSupport.park(this);
+    reader = null;
+  }
+
+  void awaitWritable(int seen) throws IOException {
+    if (!watchingWrites) {
+      poller.watchWrites(this);
+      watchingWrites = true;
+    }
+    writer = Thread.currentThread();
+    while (writeEvents.get() == seen && isOpen()) LockSupport.park(this);
+    writer = null;
+  }
+
+  /** Chamado pelo poller. */
+  void ready(int events) {
+    if ((events & (Native.EPOLLIN | Native.EPOLLRDHUP | Native.EPOLLHUP | Native.EPOLLERR)) != 0) {
+      readEvents.incrementAndGet();
+      LockSupport.unpark(reader);
+    }
+    if ((events & (Native.EPOLLOUT | Native.EPOLLHUP | Native.EPOLLERR)) != 0) {
+      writeEvents.incrementAndGet();
+      LockSupport.unpark(writer);
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package com.murilo.rinha.config.epoll;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * Syscalls da libc via FFM. Chamadas que podem falhar devolvem {@code -errno}; o errno e
+ * capturado num segmento do chamador ({@link #errnoArea}), um por thread que faz I/O no fd.
+ */
+final class Native {
+
+  static final int AF_UNIX = 1;
+  static final int SOCK_STREAM = 1;
+  static final int SOCK_NONBLOCK = 0x800;
+  static final int SOCK_CLOEXEC = 0x80000;
+  static final int SHUT_RD = 0, SHUT_WR = 1, SHUT_RDWR = 2;
+
+  static final int EINTR = 4;
+  static final int EAGAIN = 11;
+  static final int ECONNABORTED = 103;
+
+  static final int EPOLL_CLOEXEC = 0x80000;
+  static final int EPOLL_CTL_ADD = 1;
+  static final int EPOLL_CTL_MOD = 3;
+  static final int EPOLLIN = 0x1;
+  static final int EPOLLOUT = 0x4;
+  static final int EPOLLERR = 0x8;
+  static final int EPOLLHUP = 0x10;
+  static final int EPOLLRDHUP = 0x2000;
+  static final int EPOLLET = 1 << 31;
+
+  /** struct epoll_event: packed no x86_64 (12 bytes); nas outras arquiteturas data alinhado em 8. */
+  static final boolean PACKED_EVENT = System.getProperty("os.arch").matches("amd64|x86_64");
+  static final long EVENT_SIZE = PACKED_EVENT ? 12 : 16;
+  static final long EVENT_DATA = PACKED_EVENT ? 4 : 8;
+
+  /** sa_family_t + char sun_path[108]. */
+  static final int SOCKADDR_UN_SIZE = 110;
+
+  private static final Linker LINKER = Linker.nativeLinker();
+  private static final StructLayout CAPTURE = Linker.Option.captureStateLayout();
+  private static final VarHandle ERRNO = CAPTURE.varHandle(MemoryLayout.PathElement.groupElement("errno"));
+
+  private static final MethodHandle SOCKET = capturing("socket", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT));
+  private static final MethodHandle BIND = capturing("bind", FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT));
+  private static final MethodHandle LISTEN = capturing("listen", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT));
+  private static final MethodHandle ACCEPT4 = capturing("accept4",
+      FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, ADDRESS, JAVA_INT));
+  private static final MethodHandle READ = capturing("read", FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG));
+  private static final MethodHandle WRITE = capturing("write", FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG));
+  private static final MethodHandle EPOLL_CREATE1 = capturing("epoll_create1", FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+  private static final MethodHandle EPOLL_CTL = capturing("epoll_ctl",
+      FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS));
+  private static final MethodHandle EPOLL_WAIT = capturing("epoll_wait",
+      FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT));
+  private static final MethodHandle CLOSE = plain("close", FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+  private static final MethodHandle SHUTDOWN = plain("shutdown", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT));
+
+  private Native() {}
+
+  private static MethodHandle capturing(String name, FunctionDescriptor fd) {
+    return LINKER.downcallHandle(LINKER.defaultLookup().find(name).orElseThrow(), fd,
+        Linker.Option.captureCallState("errno"));
+  }
+
+  private static MethodHandle plain(String name, FunctionDescriptor fd) {
+    return LINKER.downcallHandle(LINKER.defaultLookup().find(name).orElseThrow(), fd);
+  }
+
+  static MemorySegment errnoArea(Arena arena) {
+    return arena.allocate(CAPTURE);
+  }
+
+  private static int errno(MemorySegment state) {
+    return (int) ERRNO.get(state);
+  }
+
+  static int socket(MemorySegment state, int domain, int type) {
+    try {
+      int r = (int) SOCKET.invokeExact(state, domain, type, 0);
+      return r >= 0 ? r : -errno(state);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  static int bind(MemorySegment state, int fd, MemorySegment addr) {
+    try {
+      int r = (int) BIND.invokeExact(state, fd, addr, (int) addr.byteSize());
+      return r >= 0 ? r : -errno(state);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  static int listen(MemorySegment state, int fd, int backlog) {
+    try {
+      int r = (int) LISTEN.invokeExact(state, fd, backlog);
+      return r >= 0 ? r : -errno(state);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  static int accept4(MemorySegment state, int fd, int flags) {
+    try {
+      int r = (int) ACCEPT4.invokeExact(state, fd, MemorySegment.NULL, MemorySegment.NULL, flags);
+      return r >= 0 ? r : -errno(state);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  static long read(MemorySegment state, int fd, MemorySegment buf, long len) {
+    try {
+      long r = (long) READ.invokeExact(state, fd, buf, len);
+      return r >= 0 ? r : -errno(state);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  static long write(MemorySegment state, int fd, MemorySegment buf, long len) {
+    try {
+      long r = (long) WRITE.invokeExact(state, fd, buf, len);
+      return r >= 0 ? r : -errno(state);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  static int epollCreate(MemorySegment state) {
+    try {
+      int r = (int) EPOLL_CREATE1.invokeExact(state, EPOLL_CLOEXEC);
+      return r >= 0 ? r : -errno(state);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  static int epollCtl(MemorySegment state, int epfd, int op, int fd, MemorySegment event) {
+    try {
+      int r = (int) EPOLL_CTL.invokeExact(state, epfd, op, fd, event);
+      return r >= 0 ? r : -errno(state);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  static int epollWait(MemorySegment state, int epfd, MemorySegment events, int maxEvents, int timeoutMillis) {
+    try {
+      int r = (int) EPOLL_WAIT.invokeExact(state, epfd, events, maxEvents, timeoutMillis);
+      return r >= 0 ? r : -errno(state);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  static void close(int fd) {
+    try {
+      int ignore = (int) CLOSE.invokeExact(fd);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  static void shutdown(int fd, int how) {
+    try {
+      int ignore = (int) SHUTDOWN.invokeExact(fd, how);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+}
@@ -1,34 +1,203 @@
 package com.murilo.rinha.controller;
 
+import com.murilo.rinha.config.AppConfig;
+import com.murilo.rinha.jfr.PaymentAcceptedEvent;
+import com.murilo.rinha.metrics.Counter;
+import com.murilo.rinha.metrics.Histogram;
+import com.murilo.rinha.metrics.MetricsRegistry;
+import com.murilo.rinha.repository.CorrelationIdSet;
 import com.murilo.rinha.repository.PaymentQueueRepository;
+import com.murilo.rinha.repository.PaymentTotals;
+import com.murilo.rinha.repository.QueuedPayment;
+import com.murilo.rinha.service.AdmissionController;
+import com.murilo.rinha.service.AdmissionController.Verdict;
+import com.murilo.rinha.service.GracefulDrain;
+import com.murilo.rinha.service.InlineFastPath;
 import com.murilo.rinha.service.PaymentService;
 
-import java.time.Instant;
-import java.util.Map;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 public class PaymentController {
 
     private final PaymentService paymentService;
     private final PaymentQueueRepository paymentQueueRepository;
+    private final AdmissionController admissionController;
+    private final InlineFastPath inlineFastPath;
+    private final CorrelationIdSet acceptedIds;
+    private final Histogram acceptQueued = MetricsRegistry.global().histogram("rinha_accept_seconds",
+        "Time from request parsed until the payment is logged and queued", "path", "queued");
+    private final Histogram acceptInline = MetricsRegistry.global().histogram("rinha_accept_seconds",
+        "Time from request parsed until the payment is logged and queued", "path", "inline");
+    private final Counter dedupeHits = MetricsRegistry.global().counter("rinha_dedupe_hits_total",
+        "Payments skipped because their correlationId was already seen", "stage", "accepted");
 
-    public PaymentController(PaymentService paymentService, PaymentQueueRepository paymentQueueRepository) {
+    private final Counter purgesClient = MetricsRegistry.global().counter("rinha_purges_total",
+        "Purges applied, by who asked", "origin", "client");
+    private final Counter purgesPeer = MetricsRegistry.global().counter("rinha_purges_total",
+        "Purges applied, by who asked", "origin", "peer");
+    private final Counter handoffReceived = MetricsRegistry.global().counter("rinha_handoff_payments_total",
+        "Queued payments moved between instances on shutdown", "direction", "received");
+
+    /** Ligado no SIGTERM: nao aceita mais pagamento nem backlog do peer. */
+    private volatile boolean draining;
+
+    @FunctionalInterface
+    public interface Responder {
+        void respond(Verdict verdict) throws IOException;
+    }
+
+    public PaymentController(PaymentService paymentService, PaymentQueueRepository paymentQueueRepository,
+        AdmissionController admissionController, InlineFastPath inlineFastPath, CorrelationIdSet acceptedIds) {
         this.paymentQueueRepository = paymentQueueRepository;
         this.paymentService = paymentService;
+        this.admissionController = admissionController;
+        this.inlineFastPath = inlineFastPath;
+        this.acceptedIds = acceptedIds;
     }
 
-    public void processPayment(String requestBody) {
+    /**
+     * Aceita (WAL), responde e, se o caminho rapido tiver vaga, dispara o processamento num
+     * virtual thread proprio depois da resposta; senao o pagamento vai pra fila antes da resposta.
+     */
+    public void processPayment(String requestBody, Responder responder) throws IOException {
+        long start = System.nanoTime();
+        PaymentAcceptedEvent event = new PaymentAcceptedEvent();
+        event.begin();
+        Verdict verdict = draining ? Verdict.UNAVAILABLE : admissionController.check();
+        if (verdict != Verdict.ADMIT) {
+            responder.respond(verdict);
+            return;
+        }
+        String correlationId = acceptedIds == null ? null : correlationIdOf(requestBody);
+        if (correlationId != null && !acceptedIds.add(correlationId)) {
+            // retry do cliente de algo ja aceito: idempotente, so confirma
+            dedupeHits.inc();
+            admissionController.onAdmitted();
+            responder.respond(Verdict.ADMIT);
+            return;
+        }
+        QueuedPayment payment;
         try {
-          this.paymentQueueRepository.enqueue(requestBody);
+            payment = this.paymentQueueRepository.accept(requestBody);
         } catch (Exception e) {
             System.err.println("Erro ao processar pagamento: " + e.getMessage());
+            if (correlationId != null) acceptedIds.remove(correlationId);
+            responder.respond(Verdict.UNAVAILABLE);
+            return;
+        }
+        if (inlineFastPath.tryEnter()) {
+            admissionController.onAdmitted();
+            acceptInline.recordSince(start);
+            commitAccepted(event, "inline", payment);
+            try {
+                responder.respond(Verdict.ADMIT);
+            } finally {
+                inlineFastPath.process(payment);
+            }
+            return;
+        }
+        if (!this.paymentQueueRepository.enqueue(payment)) {
+            this.paymentQueueRepository.ack(payment);
+            if (correlationId != null) acceptedIds.remove(correlationId);
+            admissionController.rejectedByQueue();
+            responder.respond(Verdict.UNAVAILABLE);
+            return;
+        }
+        admissionController.onAdmitted();
+        acceptQueued.recordSince(start);
+        commitAccepted(event, "queued", payment);
+        responder.respond(Verdict.ADMIT);
+    }
+
+    private void commitAccepted(PaymentAcceptedEvent event, String path, QueuedPayment payment) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.queueDepth = paymentQueueRepository.size();
+            event.walSeq = payment.walSeq();
+            event.commit();
         }
     }
 
-    public Map<String, Object> getPaymentSummary(Instant from, Instant to) {
+    private static String correlationIdOf(String requestBody) {
+        try {
+            return PaymentService.extractValue(requestBody, "correlationId");
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * POST /payments-purge: trata a fila conforme RINHA_PURGE_QUEUE, troca a geracao do
+     * ledger e, se o pedido veio de fora, repassa ao peer.
+     */
+    public void purge(boolean fanOut) throws InterruptedException {
+        switch (AppConfig.getPurgeQueueMode()) {
+            case "drain" -> {
+                if (!paymentQueueRepository.awaitEmpty(AppConfig.getPurgeDrainTimeoutMs())) {
+                    System.err.println("Purge: queue not drained in time, discarding " + paymentQueueRepository.discardAll());
+                }
+            }
+            case "keep" -> { }
+            default -> paymentQueueRepository.discardAll();
+        }
+        if (acceptedIds != null) acceptedIds.clear();
+        paymentService.purge();
+        (fanOut ? purgesClient : purgesPeer).inc();
+        if (fanOut) {
+            try {
+                paymentService.purgePeer();
+            } catch (RuntimeException e) {
+                System.err.println("Purge: peer failed: " + e.getMessage());
+            }
+        }
+    }
+
+    public void startDrain() {
+        draining = true;
+    }
+
+    /**
+     * POST /payments-handoff: backlog do peer que esta saindo. Cada pagamento passa pelo WAL
+     * daqui e entra na fila com a idade que tinha la, sem passar pela admissao.
+     *
+     * @return quantos foram enfileirados (duplicados pelo correlationId sao pulados)
+     * @throws IllegalStateException se esta instancia tambem esta drenando
+     */
+    public int ingestHandoff(byte[] batch) {
+        if (draining) throw new IllegalStateException("Draining");
+        long now = System.nanoTime();
+        int[] queued = {0};
+        GracefulDrain.decode(batch, (ageMillis, body) -> {
+            String correlationId = acceptedIds == null ? null : correlationIdOf(body);
+            if (correlationId != null && !acceptedIds.add(correlationId)) {
+                dedupeHits.inc();
+                return;
+            }
+            QueuedPayment accepted = paymentQueueRepository.accept(body);
+            paymentQueueRepository.requeue(new QueuedPayment(body, accepted.walSeq(),
+                now - TimeUnit.MILLISECONDS.toNanos(ageMillis)));
+            queued[0]++;
+        });
+        handoffReceived.add(queued[0]);
+        return queued[0];
+    }
+
+    public int retryAfterSeconds() {
+        return admissionController.retryAfterSeconds();
+    }
+
+    public PaymentTotals[] getPaymentSummary(long from, long to) {
         return this.paymentService.getPaymentSummaryLock(from, to);
     }
 
-    public Map<String, Object> getPaymentSummaryLock(Instant from, Instant to) {
+    public PaymentTotals[] getPaymentSummaryLock(long from, long to) {
         return this.paymentService.getPaymentSummary(from, to);
     }
+
+    /** So desta instancia: os sketches de latencia nao atravessam para o peer. */
+    public void summarySeries(long from, long to, long step, PaymentService.SeriesSink sink) throws IOException {
+        this.paymentService.summarySeries(from, to, step, sink);
+    }
 }
@@ -0,0 +1,23 @@
+package com.murilo.rinha.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("rinha.ConnectionBorrowed")
+@Label("Connection Borrowed")
+@Description("Processor connection taken from the pool; duration is the wait")
+@Category({"Rinha", "Http"})
+@StackTrace(false)
+public class ConnectionBorrowedEvent extends Event {
+
+  @Label("Target")
+  public String target;
+
+  @Label("New Connection")
+  @Description("pool was empty and a new socket was opened")
+  public boolean opened;
+}
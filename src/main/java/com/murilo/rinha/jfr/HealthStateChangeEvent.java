@@ -0,0 +1,25 @@
+package com.murilo.rinha.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("rinha.HealthStateChange")
+@Label("Health State Change")
+@Description("Processor switched between up and down")
+@Category({"Rinha", "Health"})
+@StackTrace(false)
+public class HealthStateChangeEvent extends Event {
+
+  @Label("Processor")
+  public String processor;
+
+  @Label("Up")
+  public boolean up;
+
+  @Label("Cause")
+  public String cause;
+}
@@ -0,0 +1,26 @@
+package com.murilo.rinha.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("rinha.PaymentAccepted")
+@Label("Payment Accepted")
+@Description("POST /payments admitted; duration is parse-to-logged/queued")
+@Category({"Rinha", "Payments"})
+@StackTrace(false)
+public class PaymentAcceptedEvent extends Event {
+
+  @Label("Path")
+  @Description("queued or inline")
+  public String path;
+
+  @Label("Queue Depth")
+  public int queueDepth;
+
+  @Label("WAL Sequence")
+  public long walSeq;
+}
@@ -0,0 +1,24 @@
+package com.murilo.rinha.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("rinha.PaymentDequeued")
+@Label("Payment Dequeued")
+@Description("A worker took a payment from the queue")
+@Category({"Rinha", "Payments"})
+@StackTrace(false)
+public class PaymentDequeuedEvent extends Event {
+
+  @Label("Queue Wait")
+  @Timespan
+  public long queueWait;
+
+  @Label("WAL Sequence")
+  public long walSeq;
+}
@@ -0,0 +1,24 @@
+package com.murilo.rinha.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("rinha.PaymentRecorded")
+@Label("Payment Recorded")
+@Description("Payment saved in the local ledger")
+@Category({"Rinha", "Payments"})
+@StackTrace(false)
+public class PaymentRecordedEvent extends Event {
+
+  @Label("Processor")
+  public String processor;
+
+  @Label("Accept To Record")
+  @Timespan
+  public long sinceAccepted;
+}
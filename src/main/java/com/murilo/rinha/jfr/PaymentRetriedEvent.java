@@ -0,0 +1,27 @@
+package com.murilo.rinha.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("rinha.PaymentRetried")
+@Label("Payment Retried")
+@Description("Payment handed back to the queue after a failed attempt")
+@Category({"Rinha", "Payments"})
+@StackTrace(false)
+public class PaymentRetriedEvent extends Event {
+
+  @Label("Reason")
+  public String reason;
+
+  @Label("Source")
+  @Description("worker or inline")
+  public String source;
+
+  @Label("Requeued")
+  @Description("false when the queue was full and only the WAL keeps it")
+  public boolean requeued;
+}
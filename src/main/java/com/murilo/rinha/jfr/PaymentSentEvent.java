@@ -0,0 +1,28 @@
+package com.murilo.rinha.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("rinha.PaymentSent")
+@Label("Payment Sent")
+@Description("Call to a payment processor; duration is the round trip")
+@Category({"Rinha", "Payments"})
+@StackTrace(false)
+public class PaymentSentEvent extends Event {
+
+  @Label("Processor")
+  public String processor;
+
+  @Label("Outcome")
+  @Description("ok, error or timeout")
+  public String outcome;
+
+  @Label("Deadline Budget")
+  @Timespan
+  public long budget;
+}
@@ -0,0 +1,29 @@
+package com.murilo.rinha.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timestamp;
+
+@Name("rinha.SummaryComputed")
+@Label("Summary Computed")
+@Description("Payments summary; duration covers local ledger plus peer leg when merged")
+@Category({"Rinha", "Summary"})
+@StackTrace(false)
+public class SummaryComputedEvent extends Event {
+
+  @Label("Scope")
+  @Description("local or merged")
+  public String scope;
+
+  @Label("From")
+  @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+  public long from;
+
+  @Label("To")
+  @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+  public long to;
+}
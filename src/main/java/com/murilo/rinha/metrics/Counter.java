@@ -0,0 +1,20 @@
+package com.murilo.rinha.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public final class Counter {
+
+  private final LongAdder adder = new LongAdder();
+
+  public void inc() {
+    adder.increment();
+  }
+
+  public void add(long n) {
+    adder.add(n);
+  }
+
+  public long get() {
+    return adder.sum();
+  }
+}
@@ -0,0 +1,94 @@
+package com.murilo.rinha.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma log-linear de nanos: 8 sub-buckets lineares por potencia de 2 (erro relativo
+ * de ate 12,5%), de 0 ate ~2^40 ns. Registrar e so aritmetica de bits e um incremento
+ * atomico, sem alocacao.
+ */
+public final class Histogram {
+
+  static final int SUB_BITS = 3;
+  static final int SUB = 1 << SUB_BITS;
+  static final int MAX_EXP = 40;
+  static final int BUCKETS = (MAX_EXP - SUB_BITS + 1) * SUB + SUB;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder sum = new LongAdder();
+
+  public void record(long nanos) {
+    counts.incrementAndGet(index(nanos));
+    sum.add(Math.max(0, nanos));
+  }
+
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  static int index(long v) {
+    if (v < SUB) return (int) Math.max(0, v);
+    int exp = 63 - Long.numberOfLeadingZeros(v);
+    if (exp > MAX_EXP) return BUCKETS - 1;
+    int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+    return (exp - SUB_BITS + 1) * SUB + sub;
+  }
+
+  /** Menor valor que cai no bucket {@code i}. */
+  static long lowerBound(int i) {
+    if (i < SUB) return i;
+    int exp = i / SUB + SUB_BITS - 1;
+    int sub = i % SUB;
+    return (1L << exp) + ((long) sub << (exp - SUB_BITS));
+  }
+
+  public long count() {
+    long c = 0;
+    for (int i = 0; i < BUCKETS; i++) c += counts.get(i);
+    return c;
+  }
+
+  public long sumNanos() {
+    return sum.sum();
+  }
+
+  /** Quantos registros ficaram abaixo de {@code 2^exp} ns. */
+  public long countBelowPow2(int exp) {
+    int limit = index(1L << exp);
+    long c = 0;
+    for (int i = 0; i < limit; i++) c += counts.get(i);
+    return c;
+  }
+
+  /** Quantil aproximado (ponto medio do bucket), em nanos. */
+  public long quantile(double q) {
+    long total = count();
+    if (total == 0) return 0;
+    long rank = (long) Math.ceil(q * total);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        long lo = lowerBound(i);
+        long hi = i + 1 < BUCKETS ? lowerBound(i + 1) : lo;
+        return lo + (hi - lo) / 2;
+      }
+    }
+    return lowerBound(BUCKETS - 1);
+  }
+
+  /** Soma os registros de {@code other} neste (para juntar janelas). */
+  public void mergeFrom(Histogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      long c = other.counts.get(i);
+      if (c != 0) counts.addAndGet(i, c);
+    }
+    sum.add(other.sum.sum());
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+    sum.reset();
+  }
+}
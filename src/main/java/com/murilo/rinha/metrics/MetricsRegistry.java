@@ -0,0 +1,115 @@
+package com.murilo.rinha.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Registro de metricas exposto em texto Prometheus no GET /metrics. Os componentes pegam
+ * os handles no construtor; no caminho quente e so {@link Counter#inc()} ou
+ * {@link Histogram#record(long)}.
+ */
+public final class MetricsRegistry {
+
+  private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+  // expoe de 1us (2^10 ns) a ~68s (2^36 ns)
+  private static final int EXPORT_MIN_EXP = 10;
+  private static final int EXPORT_MAX_EXP = 36;
+
+  private final Map<String, Family> families = new LinkedHashMap<>();
+
+  public static MetricsRegistry global() {
+    return GLOBAL;
+  }
+
+  public synchronized Counter counter(String name, String help, String... labels) {
+    return (Counter) family(name, help, "counter").series(labels, Counter::new);
+  }
+
+  public synchronized Histogram histogram(String name, String help, String... labels) {
+    return (Histogram) family(name, help, "histogram").series(labels, Histogram::new);
+  }
+
+  public synchronized void gauge(String name, String help, DoubleSupplier value, String... labels) {
+    family(name, help, "gauge").series(labels, () -> value);
+  }
+
+  public String scrape() {
+    StringBuilder sb = new StringBuilder(16 * 1024);
+    List<Family> snapshot = new ArrayList<>();
+    List<List<Map.Entry<String, Object>>> series = new ArrayList<>();
+    synchronized (this) {
+      for (Family f : families.values()) {
+        snapshot.add(f);
+        series.add(new ArrayList<>(f.series.entrySet()));
+      }
+    }
+    for (int i = 0; i < snapshot.size(); i++) snapshot.get(i).write(sb, series.get(i));
+    return sb.toString();
+  }
+
+  private Family family(String name, String help, String type) {
+    Family f = families.computeIfAbsent(name, n -> new Family(n, help, type));
+    if (!f.type.equals(type)) throw new IllegalArgumentException("Metric " + name + " already registered as " + f.type);
+    return f;
+  }
+
+  private static String labelString(String[] labels) {
+    if (labels.length == 0) return "";
+    if (labels.length % 2 != 0) throw new IllegalArgumentException("Labels must be name/value pairs");
+    StringBuilder sb = new StringBuilder("{");
+    for (int i = 0; i < labels.length; i += 2) {
+      if (i > 0) sb.append(',');
+      sb.append(labels[i]).append("=\"").append(labels[i + 1].replace("\"", "\\\"")).append('"');
+    }
+    return sb.append('}').toString();
+  }
+
+  private static String withLabel(String labels, String extra) {
+    return labels.isEmpty() ? "{" + extra + "}" : labels.substring(0, labels.length() - 1) + "," + extra + "}";
+  }
+
+  private static final class Family {
+    final String name;
+    final String help;
+    final String type;
+    final Map<String, Object> series = new LinkedHashMap<>();
+
+    Family(String name, String help, String type) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+    }
+
+    Object series(String[] labels, Supplier<Object> factory) {
+      return series.computeIfAbsent(labelString(labels), k -> factory.get());
+    }
+
+    void write(StringBuilder sb, List<Map.Entry<String, Object>> entries) {
+      sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+      sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+      for (Map.Entry<String, Object> e : entries) {
+        String labels = e.getKey();
+        Object m = e.getValue();
+        if (m instanceof Counter c) {
+          sb.append(name).append(labels).append(' ').append(c.get()).append('\n');
+        } else if (m instanceof DoubleSupplier g) {
+          sb.append(name).append(labels).append(' ').append(g.getAsDouble()).append('\n');
+        } else if (m instanceof Histogram h) {
+          for (int exp = EXPORT_MIN_EXP; exp <= EXPORT_MAX_EXP; exp++) {
+            sb.append(name).append("_bucket").append(withLabel(labels, "le=\"" + (1L << exp) / 1e9 + "\""))
+                .append(' ').append(h.countBelowPow2(exp)).append('\n');
+          }
+          long count = h.count();
+          sb.append(name).append("_bucket").append(withLabel(labels, "le=\"+Inf\"")).append(' ').append(count).append('\n');
+          sb.append(name).append("_sum").append(labels).append(' ').append(h.sumNanos() / 1e9).append('\n');
+          sb.append(name).append("_count").append(labels).append(' ').append(count).append('\n');
+        }
+      }
+    }
+  }
+}
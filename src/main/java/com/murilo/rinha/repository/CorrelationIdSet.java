@@ -0,0 +1,251 @@
+package com.murilo.rinha.repository;
+
+import com.murilo.rinha.metrics.Counter;
+import com.murilo.rinha.metrics.MetricsRegistry;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Conjunto de correlationIds para idempotencia, com memoria fixa.
+ *
+ * UUID vira dois longs (sem alocar) num hash aberto com sondagem linear em long[].
+ * Cada shard tem duas geracoes: insere na corrente, procura nas duas, e a cada meia
+ * janela (ou quando a corrente enche) a anterior e descartada. E best-effort com memoria
+ * limitada: com carga dentro do orcamento um id fica lembrado por pelo menos meia janela e
+ * no maximo uma janela inteira; acima dele a corrente enche antes e a rotacao adiantada
+ * ({@code rinha_dedupe_rotations_total{cause="load"}}) encurta a memoria.
+ */
+public final class CorrelationIdSet {
+
+  private static final int SHARDS = 16;
+  private static final long EMPTY = 0L;
+  /** Substitui o UUID (0,0), que colidiria com slot vazio. */
+  private static final long ZERO_HI = 0x9E3779B97F4A7C15L;
+
+  private final Shard[] shards = new Shard[SHARDS];
+  private final long halfWindowNanos;
+
+  /**
+   * @param stage rotulo das metricas (accepted, recorded)
+   * @param memoryBytes orcamento total (as duas geracoes de todos os shards)
+   * @param windowMillis quanto tempo um id deve ser lembrado
+   */
+  public CorrelationIdSet(String stage, long memoryBytes, long windowMillis) {
+    // 16 bytes por slot, 2 geracoes
+    long slotsPerGen = Math.max(64, memoryBytes / 16 / 2 / SHARDS);
+    int capacity = Integer.highestOneBit((int) Math.min(1 << 24, slotsPerGen));
+    this.halfWindowNanos = Math.max(1, windowMillis) * 1_000_000L / 2;
+    MetricsRegistry m = MetricsRegistry.global();
+    String help = "Dedupe generation rotations; load means the current generation filled before half a window";
+    Counter byAge = m.counter("rinha_dedupe_rotations_total", help, "stage", stage, "cause", "age");
+    Counter byLoad = m.counter("rinha_dedupe_rotations_total", help, "stage", stage, "cause", "load");
+    for (int i = 0; i < SHARDS; i++) shards[i] = new Shard(capacity, byAge, byLoad);
+  }
+
+  /** @return true se o id era novo (e agora esta no conjunto) */
+  public boolean add(String correlationId) {
+    long hi = high(correlationId), lo = low(correlationId);
+    if (hi == EMPTY && lo == EMPTY) hi = ZERO_HI;
+    return shard(hi, lo).add(hi, lo, System.nanoTime(), halfWindowNanos);
+  }
+
+  public boolean contains(String correlationId) {
+    long hi = high(correlationId), lo = low(correlationId);
+    if (hi == EMPTY && lo == EMPTY) hi = ZERO_HI;
+    return shard(hi, lo).contains(hi, lo);
+  }
+
+  public void remove(String correlationId) {
+    long hi = high(correlationId), lo = low(correlationId);
+    if (hi == EMPTY && lo == EMPTY) hi = ZERO_HI;
+    shard(hi, lo).remove(hi, lo);
+  }
+
+  public void clear() {
+    for (Shard s : shards) s.clear();
+  }
+
+  public long memoryBytes() {
+    return (long) shards[0].capacity * 16 * 2 * SHARDS;
+  }
+
+  private Shard shard(long hi, long lo) {
+    return shards[(int) (mix(hi, lo) >>> 60)];
+  }
+
+  static long mix(long hi, long lo) {
+    long h = hi * 0x9E3779B97F4A7C15L ^ lo;
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  // UUID canonico (8-4-4-4-12) vira os 128 bits; qualquer outra coisa cai num hash de 128 bits.
+  static long high(String s) {
+    if (isCanonicalUuid(s)) return hex(s, 0, 8) << 32 | hex(s, 9, 13) << 16 | hex(s, 14, 18);
+    return fnv(s, 0xCBF29CE484222325L);
+  }
+
+  static long low(String s) {
+    if (isCanonicalUuid(s)) return hex(s, 19, 23) << 48 | hex(s, 24, 36);
+    return fnv(s, 0x84222325CBF29CE4L);
+  }
+
+  private static boolean isCanonicalUuid(String s) {
+    return s.length() == 36 && s.charAt(8) == '-' && s.charAt(13) == '-' && s.charAt(18) == '-' && s.charAt(23) == '-';
+  }
+
+  private static final byte[] HEX = new byte[128];
+  static {
+    for (int i = 0; i < 128; i++) HEX[i] = (byte) (i & 0xF); // nao-hex: ainda deterministico
+    for (int i = 0; i < 10; i++) HEX['0' + i] = (byte) i;
+    for (int i = 0; i < 6; i++) {
+      HEX['a' + i] = (byte) (10 + i);
+      HEX['A' + i] = (byte) (10 + i);
+    }
+  }
+
+  private static long hex(String s, int from, int to) {
+    long v = 0;
+    for (int i = from; i < to; i++) v = v << 4 | HEX[s.charAt(i) & 0x7F];
+    return v;
+  }
+
+  private static long fnv(String s, long seed) {
+    long h = seed;
+    for (int i = 0; i < s.length(); i++) {
+      h ^= s.charAt(i);
+      h *= 0x100000001B3L;
+    }
+    return h;
+  }
+
+  private static final class Shard {
+    final int capacity;
+    final int maxLoad;
+    final ReentrantLock lock = new ReentrantLock();
+    final Counter byAge;
+    final Counter byLoad;
+    long[] cur;
+    long[] prev;
+    int curCount;
+    int prevCount;
+    long genStart = System.nanoTime();
+
+    Shard(int capacity, Counter byAge, Counter byLoad) {
+      this.capacity = capacity;
+      this.byAge = byAge;
+      this.byLoad = byLoad;
+      this.maxLoad = capacity * 3 / 4;
+      this.cur = new long[capacity * 2];
+      this.prev = new long[capacity * 2];
+    }
+
+    boolean add(long hi, long lo, long now, long halfWindowNanos) {
+      lock.lock();
+      try {
+        if (now - genStart > halfWindowNanos) {
+          rotate(now);
+          byAge.inc();
+        } else if (curCount >= maxLoad) {
+          rotate(now);
+          byLoad.inc();
+        }
+        if (prevCount > 0 && find(prev, hi, lo) >= 0) return false;
+        int slot = probe(cur, hi, lo);
+        if (cur[slot] != EMPTY || cur[slot + 1] != EMPTY) return false;
+        cur[slot] = hi;
+        cur[slot + 1] = lo;
+        curCount++;
+        return true;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    boolean contains(long hi, long lo) {
+      lock.lock();
+      try {
+        return find(cur, hi, lo) >= 0 || (prevCount > 0 && find(prev, hi, lo) >= 0);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void remove(long hi, long lo) {
+      lock.lock();
+      try {
+        if (delete(cur, hi, lo)) curCount--;
+        if (delete(prev, hi, lo)) prevCount--;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void clear() {
+      lock.lock();
+      try {
+        Arrays.fill(cur, EMPTY);
+        Arrays.fill(prev, EMPTY);
+        curCount = 0;
+        prevCount = 0;
+        genStart = System.nanoTime();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void rotate(long now) {
+      long[] old = prev;
+      prev = cur;
+      prevCount = curCount;
+      Arrays.fill(old, EMPTY);
+      cur = old;
+      curCount = 0;
+      genStart = now;
+    }
+
+    /** Slot (indice par) com a chave ou o primeiro vazio da sequencia. */
+    private int probe(long[] t, long hi, long lo) {
+      int mask = capacity - 1;
+      int i = (int) mix(hi, lo) & mask;
+      for (;;) {
+        int slot = i << 1;
+        long h = t[slot], l = t[slot + 1];
+        if ((h == EMPTY && l == EMPTY) || (h == hi && l == lo)) return slot;
+        i = (i + 1) & mask;
+      }
+    }
+
+    private int find(long[] t, long hi, long lo) {
+      int slot = probe(t, hi, lo);
+      return (t[slot] == EMPTY && t[slot + 1] == EMPTY) ? -1 : slot;
+    }
+
+    // remocao com backward shift, sem tombstones
+    private boolean delete(long[] t, long hi, long lo) {
+      int slot = find(t, hi, lo);
+      if (slot < 0) return false;
+      int mask = capacity - 1;
+      int i = slot >>> 1;
+      int j = i;
+      for (;;) {
+        j = (j + 1) & mask;
+        long h = t[j << 1], l = t[(j << 1) + 1];
+        if (h == EMPTY && l == EMPTY) break;
+        int home = (int) mix(h, l) & mask;
+        // j pode ir para i se i esta no caminho home..j
+        if (((j - home) & mask) >= ((j - i) & mask)) {
+          t[i << 1] = h;
+          t[(i << 1) + 1] = l;
+          i = j;
+        }
+      }
+      t[i << 1] = EMPTY;
+      t[(i << 1) + 1] = EMPTY;
+      return true;
+    }
+  }
+}
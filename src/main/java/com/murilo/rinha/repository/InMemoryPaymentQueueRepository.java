@@ -1,32 +1,161 @@
 package com.murilo.rinha.repository;
 
-import com.murilo.rinha.config.AppConfig;
+import com.murilo.rinha.config.RuntimeConfig;
+import com.murilo.rinha.jfr.PaymentDequeuedEvent;
+import com.murilo.rinha.metrics.Histogram;
+import com.murilo.rinha.metrics.MetricsRegistry;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 
+/**
+ * Fila em duas faixas: os aceitos chegam em ordem de aceite (FIFO limitado) e os que
+ * falharam voltam para uma fila de prioridade por idade. O dequeue pega a cabeca mais
+ * velha das duas, entao a ordem de processamento e sempre a do aceite.
+ */
 public class InMemoryPaymentQueueRepository implements PaymentQueueRepository {
 
-    private final LinkedBlockingQueue<String> queue;
+    private static final long AGE_SNAPSHOT_NANOS = 1_000_000_000L;
+
+    private final LinkedBlockingQueue<QueuedPayment> queue;
+    /**
+     * Sem limite: entra o que ja saiu da fila (no maximo o que esta em processamento) e, na
+     * drenagem do peer, o backlog dele, que nao pode ser recusado.
+     */
+    private final PriorityBlockingQueue<QueuedPayment> retries = new PriorityBlockingQueue<>(64,
+        (a, b) -> Long.compare(a.acceptedNanos() - b.acceptedNanos(), 0));
+    private volatile AgeSnapshot ages;
+    private final PaymentWriteAheadLog wal;
+    private final Histogram queueWait = MetricsRegistry.global().histogram("rinha_queue_wait_seconds",
+        "Time from acceptance until a worker dequeues the payment");
 
     public InMemoryPaymentQueueRepository() {
-        int bufferSize = AppConfig.getDlqBufferSize();
-        this.queue = new LinkedBlockingQueue<>(bufferSize);
+        this(null);
+    }
+
+    public InMemoryPaymentQueueRepository(PaymentWriteAheadLog wal) {
+        // limite e o RINHA_DLQ_BUFFER_SIZE corrente, checado no enqueue (pode mudar em runtime)
+        this.queue = new LinkedBlockingQueue<>();
+        this.wal = wal;
+        MetricsRegistry m = MetricsRegistry.global();
+        m.gauge("rinha_queue_depth", "Payments waiting in the queue", this::size);
+        m.gauge("rinha_queue_retry_depth", "Failed payments waiting to be retried", retries::size);
+        String help = "Age of the payments currently waiting, since acceptance";
+        for (String q : new String[]{"0.5", "0.9", "0.99", "1"}) {
+            double quantile = Double.parseDouble(q);
+            m.gauge("rinha_queue_age_seconds", help, () -> ageSnapshot().quantile(quantile) / 1e9, "quantile", q);
+        }
+    }
+
+    /** Reenfileira o que ficou sem ack no WAL; chamar com os workers ja rodando. */
+    public int recover() throws IOException {
+        if (wal == null) return 0;
+        return wal.recover(body -> {
+            try {
+                queue.put(new QueuedPayment(body, wal.append(body), System.nanoTime()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    @Override
+    public QueuedPayment accept(String request) {
+        long seq = wal != null ? wal.append(request) : 0;
+        return new QueuedPayment(request, seq, System.nanoTime());
+    }
+
+    @Override
+    public boolean enqueue(QueuedPayment payment) {
+        // aceites concorrentes podem passar do limite por alguns itens; ninguem e perdido
+        if (queue.size() >= RuntimeConfig.current().dlqBufferSize()) return false;
+        return queue.offer(payment);
     }
 
     @Override
-    public void enqueue(String request) {
-            queue.offer(request);
+    public void requeue(QueuedPayment payment) {
+        retries.add(payment);
     }
 
     @Override
-    public String dequeue() {
-            return queue.poll();
+    public QueuedPayment dequeue() {
+            QueuedPayment payment = pollOldest();
+            if (payment != null) {
+                long waited = System.nanoTime() - payment.acceptedNanos();
+                queueWait.record(waited);
+                PaymentDequeuedEvent event = new PaymentDequeuedEvent();
+                if (event.shouldCommit()) {
+                    event.queueWait = waited;
+                    event.walSeq = payment.walSeq();
+                    event.commit();
+                }
+            }
+            return payment;
 
     }
 
+    private QueuedPayment pollOldest() {
+        QueuedPayment retry = retries.peek();
+        if (retry == null) return queue.poll();
+        QueuedPayment fresh = queue.peek();
+        if (fresh != null && fresh.acceptedNanos() - retry.acceptedNanos() < 0) {
+            QueuedPayment p = queue.poll();
+            if (p != null) return p;
+        }
+        QueuedPayment p = retries.poll();
+        return p != null ? p : queue.poll();
+    }
+
+    @Override
+    public void ack(QueuedPayment payment) {
+        if (wal != null) wal.ack(payment.walSeq());
+    }
+
     @Override
     public int size() {
-        return queue.size();
+        return queue.size() + retries.size();
+    }
+
+    @Override
+    public int discardAll() {
+        List<QueuedPayment> dropped = takeAll();
+        for (QueuedPayment payment : dropped) ack(payment);
+        return dropped.size();
+    }
+
+    @Override
+    public List<QueuedPayment> takeAll() {
+        List<QueuedPayment> taken = new ArrayList<>(size());
+        QueuedPayment payment;
+        while ((payment = pollOldest()) != null) taken.add(payment);
+        return taken;
+    }
+
+    @Override
+    public boolean awaitEmpty(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!queue.isEmpty() || !retries.isEmpty()) {
+            if (System.currentTimeMillis() >= deadline) return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    /** Idades de quem esta esperando; recalculado no maximo uma vez por segundo (scrape). */
+    private Histogram ageSnapshot() {
+        long now = System.nanoTime();
+        AgeSnapshot snapshot = ages;
+        if (snapshot != null && now - snapshot.takenAt < AGE_SNAPSHOT_NANOS) return snapshot.ages;
+        Histogram h = new Histogram();
+        for (QueuedPayment p : queue) h.record(now - p.acceptedNanos());
+        for (QueuedPayment p : retries) h.record(now - p.acceptedNanos());
+        ages = new AgeSnapshot(now, h);
+        return h;
     }
 
-}
\ No newline at end of file
+    private record AgeSnapshot(long takenAt, Histogram ages) {}
+}
@@ -1,61 +1,263 @@
 package com.murilo.rinha.repository;
 
+import com.murilo.rinha.config.AppConfig;
+import com.murilo.rinha.metrics.MetricsRegistry;
+
 import java.math.BigDecimal;
-import java.time.Instant;
 import java.util.Map;
-import java.util.HashMap;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.NavigableMap;
+import java.util.function.ToDoubleFunction;
 
+/**
+ * Ledger em memoria com retencao em tres resolucoes: buckets por ms ate {@code rawWindow},
+ * depois por segundo ate {@code secondWindow} e por minuto dai em diante, sempre com
+ * (quantidade, soma) exatos. Um compactador em background ({@link #start()}) move os dados;
+ * save nao espera por ele e summaries so repetem a varredura se cruzarem um move.
+ *
+ * O compactador tira cada bucket do mapa e o sela antes de somar; um save que pegou o bucket
+ * antes disso ve o selo e regrava pelo caminho atrasado. Moves e saves atrasados sao
+ * serializados por ledger, entao o seqlock {@code moves} so tem um escritor por vez.
+ *
+ * Na parte compactada o intervalo de um summary tem a resolucao do bucket: um bucket
+ * conta inteiro se o seu inicio esta em [from, to].
+ */
 public class InMemoryPaymentRepository implements PaymentRepository {
 
-  private final NavigableMap<Long, Queue<BigDecimal>> mainStorage = new ConcurrentSkipListMap<>();
-  private final NavigableMap<Long, Queue<BigDecimal>> fallbackStorage = new ConcurrentSkipListMap<>();
+  // estimativas por entrada, so para a metrica de memoria
+  private static final int RAW_BUCKET_BYTES = 136;
+  private static final int ROLLUP_BYTES = 96;
+
+  private record Rollup(long count, BigDecimal sum) {
+    static final Rollup EMPTY = new Rollup(0, BigDecimal.ZERO);
+
+    Rollup plus(Rollup o) {
+      return new Rollup(count + o.count, sum.add(o.sum));
+    }
+  }
+
+  /**
+   * Um ledger por processador, indexado pelo id do registry. O purge troca o array inteiro
+   * (nova geracao); o antigo fica para o GC, sem travar quem esta gravando. Save de pagamento
+   * que saiu da fila antes do purge e descartado, nao cai na geracao nova.
+   */
+  private record Generation(long number, Ledger[] ledgers) {}
+
+  private volatile Generation current;
+  private final long rawWindowMillis;
+  private final long secondWindowMillis;
+  private final long compactIntervalMillis;
+
+  public InMemoryPaymentRepository(int processors) {
+    this(processors, AppConfig.getLedgerRawWindowMs(), AppConfig.getLedgerSecondWindowMs(),
+        AppConfig.getLedgerCompactIntervalMs());
+  }
+
+  /** {@code rawWindowMillis <= 0} desliga a compactacao. */
+  public InMemoryPaymentRepository(int processors, long rawWindowMillis, long secondWindowMillis,
+      long compactIntervalMillis) {
+    this.current = new Generation(0, newGeneration(processors));
+    // requestedAt e anterior a chamada ao processador (ate um prazo por processador tentado);
+    // a janela crua precisa cobrir isso com folga
+    this.rawWindowMillis = rawWindowMillis <= 0 ? 0
+        : Math.max(rawWindowMillis, (long) Math.max(2, processors) * AppConfig.getPaymentDeadlineMs() + 10_000);
+    this.secondWindowMillis = Math.max(this.rawWindowMillis, secondWindowMillis);
+    this.compactIntervalMillis = Math.max(100, compactIntervalMillis);
+
+    MetricsRegistry m = MetricsRegistry.global();
+    String help = "Estimated ledger memory by resolution";
+    m.gauge("rinha_ledger_bytes", help, () -> sum(Ledger::rawBytes), "resolution", "raw");
+    m.gauge("rinha_ledger_bytes", help, () -> sum(l -> l.seconds.size()) * ROLLUP_BYTES, "resolution", "second");
+    m.gauge("rinha_ledger_bytes", help, () -> sum(l -> l.minutes.size()) * ROLLUP_BYTES, "resolution", "minute");
+    m.gauge("rinha_ledger_raw_payments", "Payments still kept at millisecond resolution",
+        () -> sum(l -> l.rawPayments.sum()));
+  }
+
+  /** Sobe o compactador; sem janela crua nao faz nada. */
+  public void start() {
+    if (rawWindowMillis > 0) {
+      Thread.ofPlatform().daemon().name("ledger-compactor").start(() -> runCompactor(compactIntervalMillis));
+    }
+  }
 
   @Override
-  public void save(String source, Instant timestamp, String amount, String correlationId) {
-    long key = timestamp.toEpochMilli();
+  public long generation() {
+    return current.number;
+  }
+
+  @Override
+  public boolean save(long generation, int processor, long requestedAtMillis, String amount, String correlationId) {
+    Generation gen = current;
+    if (gen.number != generation) return false;
+    long key = requestedAtMillis;
     BigDecimal value = new BigDecimal(amount);
 
-    NavigableMap<Long, Queue<BigDecimal>> storage = getStorage(source);
-    storage.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>()).add(value);
+    Ledger ledger = gen.ledgers[processor];
+    // bucket selado: o compactador ja o levou e subiu o rawFloor, entao vai pelo caminho atrasado
+    if (key >= ledger.rawFloor && ledger.raw.computeIfAbsent(key, k -> new RawBucket()).add(value)) {
+      ledger.rawPayments.increment();
+      return true;
+    }
+    ledger.saveLate(key, value);
+    return true;
   }
 
-  private NavigableMap<Long, Queue<BigDecimal>> getStorage(String source) {
-    return switch (source) {
-      case "main" -> mainStorage;
-      case "fallback" -> fallbackStorage;
-      default -> throw new IllegalArgumentException("Invalid source: " + source);
-    };
+  private double sum(ToDoubleFunction<Ledger> f) {
+    double total = 0;
+    for (Ledger l : current.ledgers) total += f.applyAsDouble(l);
+    return total;
   }
 
-  public void purge() {
-    this.mainStorage.clear();
-    this.fallbackStorage.clear();
+  /** Troca atomica de geracao: saves e summaries seguintes ja veem o ledger vazio. */
+  @Override
+  public synchronized void purge() {
+    Generation old = current;
+    current = new Generation(old.number + 1, newGeneration(old.ledgers.length));
+  }
+
+  private static Ledger[] newGeneration(int processors) {
+    Ledger[] fresh = new Ledger[processors];
+    for (int i = 0; i < processors; i++) fresh[i] = new Ledger();
+    return fresh;
+  }
+
+  @Override
+  public PaymentTotals optimizedSummary(int processor, long fromMillis, long toMillis) {
+    Ledger ledger = current.ledgers[processor];
+    for (;;) {
+      long version = ledger.moves.get();
+      if ((version & 1) != 0) {
+        Thread.onSpinWait();
+        continue;
+      }
+      Rollup total = Rollup.EMPTY;
+      for (RawBucket b : ledger.raw.subMap(fromMillis, true, toMillis, true).values()) total = total.plus(b.rollup());
+      for (Rollup r : ledger.seconds.subMap(fromMillis, true, toMillis, true).values()) total = total.plus(r);
+      for (Rollup r : ledger.minutes.subMap(fromMillis, true, toMillis, true).values()) total = total.plus(r);
+      // compactacao no meio da varredura pode ter contado um bucket duas vezes (ou nenhuma)
+      if (ledger.moves.get() != version) continue;
+      return new PaymentTotals((int) total.count, total.sum);
+    }
+  }
+
+  private void runCompactor(long everyMillis) {
+    for (;;) {
+      try {
+        Thread.sleep(everyMillis);
+      } catch (InterruptedException e) {
+        return;
+      }
+      long now = System.currentTimeMillis();
+      try {
+        compact(now);
+      } catch (RuntimeException e) {
+        System.err.println("Ledger compaction failed: " + e);
+      }
+    }
+  }
+
+  /** Move o que passou de cada janela para a resolucao seguinte. */
+  void compact(long nowMillis) {
+    for (Ledger ledger : current.ledgers) {
+      ledger.compactRaw(floorTo(nowMillis - rawWindowMillis, 1000));
+      ledger.compactSeconds(floorTo(nowMillis - secondWindowMillis, 60_000));
+    }
+  }
+
+  private static long floorTo(long millis, long unit) {
+    return Math.floorDiv(millis, unit) * unit;
+  }
+
+  /** Pagamentos de um ms; depois de selado nao aceita mais nada. */
+  private static final class RawBucket {
+    private long count;
+    private BigDecimal sum = BigDecimal.ZERO;
+    private boolean sealed;
+
+    synchronized boolean add(BigDecimal value) {
+      if (sealed) return false;
+      count++;
+      sum = sum.add(value);
+      return true;
+    }
+
+    synchronized Rollup seal() {
+      sealed = true;
+      return new Rollup(count, sum);
+    }
+
+    synchronized Rollup rollup() {
+      return new Rollup(count, sum);
+    }
   }
 
-  public Map<String, Object> optimizedSummary(String source, Instant from, Instant to) {
-    NavigableMap<Long, Queue<BigDecimal>> storage = getStorage(source);
-    long fromMillis = from.toEpochMilli();
-    long toMillis = to.toEpochMilli();
+  private static final class Ledger {
+    final ConcurrentSkipListMap<Long, RawBucket> raw = new ConcurrentSkipListMap<>();
+    final ConcurrentSkipListMap<Long, Rollup> seconds = new ConcurrentSkipListMap<>();
+    final ConcurrentSkipListMap<Long, Rollup> minutes = new ConcurrentSkipListMap<>();
+    final LongAdder rawPayments = new LongAdder();
+    /** Impar durante um move ou save atrasado (um escritor por vez); summaries refazem a varredura se mudou. */
+    final AtomicLong moves = new AtomicLong();
+    /** Tudo antes disso ja saiu do mapa cru. */
+    volatile long rawFloor = Long.MIN_VALUE;
+    volatile long secondFloor = Long.MIN_VALUE;
 
-    AtomicReference<BigDecimal> totalAmount = new AtomicReference<>(BigDecimal.ZERO);
-    AtomicReference<Integer> totalRequests = new AtomicReference<>(0);
+    /** Pagamento com requestedAt numa faixa ja compactada vai direto para o rollup. */
+    synchronized void saveLate(long key, BigDecimal value) {
+      Rollup one = new Rollup(1, value);
+      moves.incrementAndGet();
+      try {
+        if (key < secondFloor) minutes.merge(floorTo(key, 60_000), one, Rollup::plus);
+        else seconds.merge(floorTo(key, 1000), one, Rollup::plus);
+      } finally {
+        moves.incrementAndGet();
+      }
+    }
 
-    storage.subMap(fromMillis, true, toMillis, true)
-        .values()
-        .forEach(queue -> {
-          totalRequests.updateAndGet(v -> v + queue.size());
-          queue.forEach(amount -> totalAmount.updateAndGet(sum -> sum.add(amount)));
-        });
+    /** Buckets de ms antes de {@code cutoff} (inicio de segundo) viram rollups por segundo. */
+    synchronized void compactRaw(long cutoff) {
+      if (cutoff > rawFloor) rawFloor = cutoff;
+      Map.Entry<Long, RawBucket> first;
+      while ((first = raw.firstEntry()) != null && first.getKey() < cutoff) {
+        long second = floorTo(first.getKey(), 1000);
+        Rollup total = Rollup.EMPTY;
+        moves.incrementAndGet();
+        try {
+          for (Long key : raw.subMap(second, true, second + 1000, false).keySet()) {
+            RawBucket bucket = raw.remove(key);
+            if (bucket != null) total = total.plus(bucket.seal());
+          }
+          if (total.count > 0) seconds.merge(second, total, Rollup::plus);
+        } finally {
+          moves.incrementAndGet();
+        }
+        rawPayments.add(-total.count);
+      }
+    }
 
-    Map<String, Object> summary = new HashMap<>();
-    summary.put("totalRequests", totalRequests.get());
-    summary.put("totalAmount", totalAmount.get());
+    /** Rollups por segundo antes de {@code cutoff} (inicio de minuto) viram rollups por minuto. */
+    synchronized void compactSeconds(long cutoff) {
+      if (cutoff > secondFloor) secondFloor = cutoff;
+      Map.Entry<Long, Rollup> first;
+      while ((first = seconds.firstEntry()) != null && first.getKey() < cutoff) {
+        long minute = floorTo(first.getKey(), 60_000);
+        NavigableMap<Long, Rollup> slice = seconds.subMap(minute, true, minute + 60_000, false);
+        Rollup total = Rollup.EMPTY;
+        for (Rollup r : slice.values()) total = total.plus(r);
+        moves.incrementAndGet();
+        try {
+          minutes.merge(minute, total, Rollup::plus);
+          slice.clear();
+        } finally {
+          moves.incrementAndGet();
+        }
+      }
+    }
 
-    return summary;
+    double rawBytes() {
+      return (double) raw.size() * RAW_BUCKET_BYTES;
+    }
   }
 }
@@ -1,8 +1,23 @@
 package com.murilo.rinha.repository;
 
+import java.util.List;
+
 public interface PaymentQueueRepository {
-    void enqueue(String request);
-    String dequeue();
+    QueuedPayment accept(String request);
+    boolean enqueue(QueuedPayment payment);
+    /**
+     * Devolve um pagamento que falhou (ou que veio do peer no shutdown); volta na frente dos
+     * que foram aceitos depois dele. Nao tem limite.
+     */
+    void requeue(QueuedPayment payment);
+    QueuedPayment dequeue();
+    void ack(QueuedPayment payment);
     int size();
+    /** Descarta tudo que esta esperando (com ack no WAL); devolve quantos. */
+    int discardAll();
+    /** Tira tudo que esta esperando, do mais velho ao mais novo, sem ack no WAL. */
+    List<QueuedPayment> takeAll();
+    /** Espera os workers esvaziarem a fila; false se estourou o prazo. */
+    boolean awaitEmpty(long timeoutMillis) throws InterruptedException;
 
 }
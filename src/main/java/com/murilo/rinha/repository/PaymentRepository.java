@@ -1,10 +1,16 @@
 package com.murilo.rinha.repository;
 
 
-import java.time.Instant;
-import java.util.Map;
-
 public interface PaymentRepository {
-    void save(String source, Instant timestamp, String amount, String correlationId);
-    public Map<String, Object> optimizedSummary(String source, Instant from, Instant to);
+    /** Geracao atual do ledger; muda a cada {@link #purge()}. */
+    long generation();
+    /**
+     * {@code processor} e o id do ProcessorRegistry; tempos em epoch millis. {@code generation} e a
+     * de quando o pagamento saiu da fila: se um purge veio depois, nada e gravado.
+     *
+     * @return false se a geracao ja foi trocada
+     */
+    boolean save(long generation, int processor, long requestedAtMillis, String amount, String correlationId);
+    public PaymentTotals optimizedSummary(int processor, long fromMillis, long toMillis);
+    void purge();
 }
@@ -0,0 +1,13 @@
+package com.murilo.rinha.repository;
+
+import java.math.BigDecimal;
+
+/** Quantidade e soma de um processador numa janela. */
+public record PaymentTotals(int totalRequests, BigDecimal totalAmount) {
+
+  public static final PaymentTotals ZERO = new PaymentTotals(0, BigDecimal.ZERO);
+
+  public PaymentTotals plus(PaymentTotals other) {
+    return new PaymentTotals(totalRequests + other.totalRequests, totalAmount.add(other.totalAmount));
+  }
+}
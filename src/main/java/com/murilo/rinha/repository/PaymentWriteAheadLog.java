@@ -0,0 +1,367 @@
+package com.murilo.rinha.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Log append-only em segmentos mmap para pagamentos aceitos e ainda nao gravados.
+ *
+ * Registro: [int payloadLen][long seq][payload][byte type]. O byte de tipo e escrito por
+ * ultimo, entao um registro pela metade aparece como fim de segmento no replay.
+ * Segmentos antigos so sao apagados em ordem (prefixo), quando todos os seus
+ * registros foram confirmados via {@link #ack(long)}. Cada segmento e dono dos seqs a partir
+ * do primeiro append que recebeu; o seq so e atribuido depois de uma eventual virada.
+ */
+public final class PaymentWriteAheadLog implements Closeable {
+
+  public enum SyncPolicy {
+    /** So page cache: sobrevive a kill do processo, nao a queda da maquina. */
+    NONE,
+    /** force() periodico numa thread de flush. */
+    INTERVAL,
+    /** Group commit: append espera o proximo force() que cobre seu seq. */
+    ALWAYS;
+
+    public static SyncPolicy parse(String value) {
+      return SyncPolicy.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+  }
+
+  private static final byte TYPE_APPEND = 1;
+  private static final byte TYPE_ACK = 2;
+  private static final int HEADER = 4 + 8;
+  private static final int RECORD_OVERHEAD = HEADER + 1;
+
+  /** Unsafe.invokeCleaner quando disponivel; senao o mmap de um segmento apagado so sai no GC. */
+  private static final MethodHandle INVOKE_CLEANER = findCleaner();
+
+  private final Path dir;
+  private final int segmentBytes;
+  private final SyncPolicy syncPolicy;
+  private final long syncIntervalMillis;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition flushed = lock.newCondition();
+  private final Condition flushRequested = lock.newCondition();
+  /** Por indice do arquivo: ordem de truncate. */
+  private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+  /** Por primeiro seq: dono de cada seq no ack. Segmento sem append e sobrescrito, nao e dono de nada. */
+  private final ConcurrentSkipListMap<Long, Segment> owners = new ConcurrentSkipListMap<>();
+
+  private Segment current;
+  private long nextSeq = 1;
+  private long durableSeq;
+  private long lastAppendedSeq;
+  private volatile boolean closed;
+
+  public PaymentWriteAheadLog(Path dir, int segmentBytes, SyncPolicy syncPolicy,
+      long syncIntervalMillis, long truncateIntervalMillis) throws IOException {
+    this.dir = dir;
+    this.segmentBytes = segmentBytes;
+    this.syncPolicy = syncPolicy;
+    this.syncIntervalMillis = Math.max(1, syncIntervalMillis);
+    Files.createDirectories(dir);
+
+    if (syncPolicy != SyncPolicy.NONE) {
+      Thread.ofPlatform().daemon().name("wal-flusher").start(this::runFlusher);
+    }
+    long truncateEvery = Math.max(1, truncateIntervalMillis);
+    Thread.ofPlatform().daemon().name("wal-truncate").start(() -> runTruncate(truncateEvery));
+  }
+
+  /**
+   * Le os segmentos deixados pela execucao anterior, reescreve os registros sem ack num
+   * segmento novo (via {@code sink}, que deve chamar {@link #append}) e apaga os antigos.
+   * Um crash no meio do recover pode duplicar registros, nunca perder.
+   */
+  public int recover(Consumer<String> sink) throws IOException {
+    List<Path> old = listSegmentFiles();
+    Map<Long, String> pending = new LinkedHashMap<>();
+    long maxIndex = 0;
+    for (Path p : old) {
+      maxIndex = Math.max(maxIndex, segmentIndex(p));
+      readSegment(p, pending);
+    }
+
+    lock.lock();
+    try {
+      current = openSegment(maxIndex + 1);
+    } finally {
+      lock.unlock();
+    }
+
+    for (String body : pending.values()) sink.accept(body);
+
+    lock.lock();
+    try {
+      if (syncPolicy != SyncPolicy.NONE) forceCurrent();
+    } finally {
+      lock.unlock();
+    }
+    for (Path p : old) Files.deleteIfExists(p);
+    return pending.size();
+  }
+
+  public long append(String body) {
+    byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+    long seq;
+    lock.lock();
+    try {
+      Segment s = segmentFor(payload.length);
+      seq = nextSeq++;
+      s.write(TYPE_APPEND, seq, payload);
+      s.pending.incrementAndGet();
+      lastAppendedSeq = seq;
+      if (syncPolicy == SyncPolicy.ALWAYS) {
+        flushRequested.signal();
+        while (durableSeq < seq && !closed) flushed.awaitUninterruptibly();
+      }
+    } finally {
+      lock.unlock();
+    }
+    return seq;
+  }
+
+  public void ack(long seq) {
+    if (seq <= 0) return;
+    Map.Entry<Long, Segment> owner = owners.floorEntry(seq);
+    lock.lock();
+    try {
+      // o ack vai no segmento corrente; o dono so pode ser apagado depois dele
+      segmentFor(0).write(TYPE_ACK, seq, null);
+    } finally {
+      lock.unlock();
+    }
+    if (owner != null) owner.getValue().pending.decrementAndGet();
+  }
+
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+      if (current != null && syncPolicy != SyncPolicy.NONE) forceCurrent();
+      flushed.signalAll();
+      flushRequested.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    for (Segment s : segments.values()) s.close();
+  }
+
+  private Segment segmentFor(int payloadLen) {
+    int need = RECORD_OVERHEAD + payloadLen;
+    if (need > segmentBytes) throw new IllegalArgumentException("Payload larger than WAL segment: " + payloadLen);
+    if (current.map.remaining() < need) {
+      if (syncPolicy != SyncPolicy.NONE) forceCurrent();
+      current.sealed = true;
+      try {
+        current = openSegment(current.index + 1);
+      } catch (IOException e) {
+        throw new RuntimeException("Cannot roll WAL segment", e);
+      }
+    }
+    return current;
+  }
+
+  private Segment openSegment(long index) throws IOException {
+    Path path = dir.resolve(String.format("wal-%016d.log", index));
+    FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    Segment s = new Segment(index, nextSeq, path, ch, ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+    segments.put(index, s);
+    owners.put(nextSeq, s);
+    return s;
+  }
+
+  private void forceCurrent() {
+    current.force(current.map.position());
+    durableSeq = lastAppendedSeq;
+  }
+
+  private void runFlusher() {
+    while (!closed) {
+      Segment s;
+      long target;
+      int end;
+      lock.lock();
+      try {
+        if (syncPolicy == SyncPolicy.ALWAYS) {
+          while (durableSeq >= lastAppendedSeq && !closed) flushRequested.awaitUninterruptibly();
+        } else {
+          flushRequested.await(syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        if (current == null || durableSeq >= lastAppendedSeq) continue;
+        s = current;
+        target = lastAppendedSeq;
+        end = s.map.position();
+      } catch (InterruptedException e) {
+        return;
+      } finally {
+        lock.unlock();
+      }
+
+      // fsync fora do lock: appends continuam entrando no proximo grupo
+      s.force(end);
+
+      lock.lock();
+      try {
+        if (target > durableSeq) durableSeq = target;
+        flushed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private void runTruncate(long everyMillis) {
+    while (!closed) {
+      try {
+        Thread.sleep(everyMillis);
+      } catch (InterruptedException e) {
+        return;
+      }
+      truncate();
+    }
+  }
+
+  /** Apaga o prefixo de segmentos selados sem registros pendentes. */
+  void truncate() {
+    Map.Entry<Long, Segment> first;
+    while ((first = segments.firstEntry()) != null) {
+      Segment s = first.getValue();
+      if (!s.sealed || s.pending.get() > 0) return;
+      segments.remove(first.getKey());
+      owners.remove(s.firstSeq, s);
+      s.release();
+      try { Files.deleteIfExists(s.path); } catch (IOException ignore) {}
+    }
+  }
+
+  private static MethodHandle findCleaner() {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      return MethodHandles.lookup()
+          .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+          .bindTo(theUnsafe.get(null));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private List<Path> listSegmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      List<Path> out = new ArrayList<>();
+      files.filter(p -> p.getFileName().toString().startsWith("wal-")).sorted().forEach(out::add);
+      return out;
+    }
+  }
+
+  private static long segmentIndex(Path p) {
+    String name = p.getFileName().toString();
+    return Long.parseLong(name.substring(4, name.length() - 4));
+  }
+
+  private static void readSegment(Path p, Map<Long, String> pending) throws IOException {
+    try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+      MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+      while (map.remaining() >= RECORD_OVERHEAD) {
+        int start = map.position();
+        int len = map.getInt(start);
+        if (len < 0 || start + RECORD_OVERHEAD + len > map.limit()) break;
+        byte type = map.get(start + HEADER + len);
+        if (type == 0) break;
+        long seq = map.getLong(start + 4);
+        if (type == TYPE_APPEND) {
+          byte[] payload = new byte[len];
+          map.get(start + HEADER, payload);
+          pending.put(seq, new String(payload, StandardCharsets.UTF_8));
+        } else if (type == TYPE_ACK) {
+          pending.remove(seq);
+        }
+        map.position(start + RECORD_OVERHEAD + len);
+      }
+    }
+  }
+
+  private static final class Segment {
+    final long index;
+    final long firstSeq;
+    final Path path;
+    final FileChannel channel;
+    final MappedByteBuffer map;
+    final AtomicInteger pending = new AtomicInteger();
+    volatile boolean sealed;
+    volatile int forcedUpTo;
+    private boolean released;
+
+    Segment(long index, long firstSeq, Path path, FileChannel channel, MappedByteBuffer map) {
+      this.index = index;
+      this.firstSeq = firstSeq;
+      this.path = path;
+      this.channel = channel;
+      this.map = map;
+    }
+
+    void write(byte type, long seq, byte[] payload) {
+      int start = map.position();
+      int len = payload == null ? 0 : payload.length;
+      map.putInt(len).putLong(seq);
+      if (len > 0) map.put(payload);
+      map.put(start + HEADER + len, type);
+      map.position(start + RECORD_OVERHEAD + len);
+    }
+
+    /** Sincronizado com {@link #release()}: o flusher pode estar no force de um segmento recem-selado. */
+    synchronized void force(int end) {
+      if (released) return;
+      int from = forcedUpTo;
+      if (end > from) {
+        map.force(from, end - from);
+        forcedUpTo = end;
+      }
+    }
+
+    void close() {
+      try { channel.close(); } catch (IOException ignore) {}
+    }
+
+    /** Fecha e desfaz o mmap; so para segmento selado que ninguem mais escreve. */
+    synchronized void release() {
+      released = true;
+      close();
+      if (INVOKE_CLEANER != null) {
+        try {
+          INVOKE_CLEANER.invokeExact((ByteBuffer) map);
+        } catch (Throwable ignore) {
+          // fica para o GC
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,8 @@
+package com.murilo.rinha.repository;
+
+/**
+ * Corpo do pagamento aceito, seq do WAL (0 quando o WAL esta desligado) e o instante do
+ * aceite em {@link System#nanoTime()}, base do prazo das chamadas ao processador.
+ */
+public record QueuedPayment(String body, long walSeq, long acceptedNanos) {
+}
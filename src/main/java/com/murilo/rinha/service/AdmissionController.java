@@ -0,0 +1,151 @@
+package com.murilo.rinha.service;
+
+import com.murilo.rinha.config.AppConfig;
+import com.murilo.rinha.config.RuntimeConfig;
+import com.murilo.rinha.metrics.Counter;
+import com.murilo.rinha.metrics.MetricsRegistry;
+import com.murilo.rinha.repository.PaymentQueueRepository;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decide se um POST /payments entra na fila olhando profundidade, tempo projetado de
+ * drenagem (profundidade / vazao atual dos processadores) e uso de heap.
+ *
+ * A vazao e medida pelas conclusoes dos workers e do inline (cada uma tambem atualiza a
+ * media). Ate juntar {@link #WARMUP_WINDOWS} janelas com conclusoes ela e desconhecida e a
+ * drenagem nao barra ninguem, so o limite da fila vale: uma janela so, no start com JIT
+ * frio, subestima a vazao. Janela sem atividade nenhuma (ociosidade) nao entra na media.
+ */
+public class AdmissionController {
+
+    public enum Verdict { ADMIT, TOO_MANY_REQUESTS, UNAVAILABLE }
+
+    private static final long TICK_MS = 250;
+    /** Janela maior que isso teve ociosidade (ninguem chamou tick): nao diz nada da vazao. */
+    private static final long IDLE_WINDOW_MS = 2_000;
+    private static final int WARMUP_WINDOWS = 4;
+
+    private final PaymentQueueRepository queue;
+    private final boolean enabled;
+    private final int minDepth;
+    private final long drainSlaMillis;
+    private final long maxHeapBytes;
+
+    private final LongAdder processed = new LongAdder();
+    private final AtomicLong lastTick = new AtomicLong(System.currentTimeMillis());
+    private long lastProcessed;
+    private int warmupWindows;
+    private long warmupDone;
+    private long warmupMillis;
+    /** NaN durante o aquecimento. */
+    private volatile double ratePerMs = Double.NaN;
+
+    private final Counter admitted;
+    private final Counter shedDrain;
+    private final Counter shedFull;
+    private final Counter shedMemory;
+
+    public AdmissionController(PaymentQueueRepository queue) {
+        this.queue = queue;
+        this.enabled = AppConfig.isAdmissionEnabled();
+        this.minDepth = AppConfig.getAdmissionMinDepth();
+        this.drainSlaMillis = AppConfig.getAdmissionDrainSlaMs();
+        this.maxHeapBytes = Runtime.getRuntime().maxMemory() / 100 * AppConfig.getAdmissionMaxHeapPct();
+
+        MetricsRegistry m = MetricsRegistry.global();
+        String help = "POST /payments admission decisions";
+        this.admitted = m.counter("rinha_admission_total", help, "decision", "admit");
+        this.shedDrain = m.counter("rinha_admission_total", help, "decision", "shed_drain");
+        this.shedFull = m.counter("rinha_admission_total", help, "decision", "shed_full");
+        this.shedMemory = m.counter("rinha_admission_total", help, "decision", "shed_memory");
+        m.gauge("rinha_processed_per_second", "EWMA of payments processed per second", this::throughputPerSecond);
+        m.gauge("rinha_projected_drain_seconds", "Queue depth divided by current throughput",
+            () -> {
+                long drain = projectedDrainMillis(queue.size());
+                return drain == Long.MAX_VALUE ? Double.POSITIVE_INFINITY : drain / 1000.0;
+            });
+    }
+
+    public Verdict check() {
+        if (!enabled) return Verdict.ADMIT;
+        tick();
+        int depth = queue.size();
+        if (depth >= RuntimeConfig.current().dlqBufferSize()) {
+            shedFull.inc();
+            return Verdict.UNAVAILABLE;
+        }
+        if (depth > minDepth) {
+            if (projectedDrainMillis(depth) > drainSlaMillis) {
+                shedDrain.inc();
+                return Verdict.TOO_MANY_REQUESTS;
+            }
+            Runtime rt = Runtime.getRuntime();
+            if (rt.totalMemory() - rt.freeMemory() > maxHeapBytes) {
+                shedMemory.inc();
+                return Verdict.UNAVAILABLE;
+            }
+        }
+        return Verdict.ADMIT;
+    }
+
+    /** Liberado pelo {@link #check()} e ja na fila (ou no inline): so aqui conta como admit. */
+    public void onAdmitted() {
+        if (enabled) admitted.inc();
+    }
+
+    /** Fila cheia na hora do offer (corrida com outros aceites). */
+    public void rejectedByQueue() {
+        shedFull.inc();
+    }
+
+    public void onProcessed() {
+        processed.increment();
+        tick();
+    }
+
+    public int retryAfterSeconds() {
+        long drain = projectedDrainMillis(queue.size());
+        long over = drain == Long.MAX_VALUE ? drainSlaMillis : Math.max(drain - drainSlaMillis, 0);
+        return (int) Math.max(1, Math.min(60, (over + 999) / 1000));
+    }
+
+    /** 0 enquanto a vazao e desconhecida; {@code Long.MAX_VALUE} se nada esta saindo da fila. */
+    public long projectedDrainMillis(int depth) {
+        double rate = ratePerMs;
+        if (Double.isNaN(rate) || depth == 0) return 0;
+        if (rate <= 0) return Long.MAX_VALUE;
+        return (long) (depth / rate);
+    }
+
+    public double throughputPerSecond() {
+        double rate = ratePerMs;
+        return Double.isNaN(rate) ? 0 : rate * 1000;
+    }
+
+    public long admitted() { return admitted.get(); }
+    public long shedDrain() { return shedDrain.get(); }
+    public long shedFull() { return shedFull.get(); }
+    public long shedMemory() { return shedMemory.get(); }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        long last = lastTick.get();
+        if (now - last < TICK_MS || !lastTick.compareAndSet(last, now)) return;
+        long count = processed.sum();
+        long done = count - lastProcessed;
+        lastProcessed = count;
+        // sem trabalho nenhum a janela nao mede capacidade
+        if (now - last > IDLE_WINDOW_MS || (done == 0 && queue.size() == 0)) return;
+        double prev = ratePerMs;
+        if (Double.isNaN(prev)) {
+            if (done == 0) return;
+            warmupDone += done;
+            warmupMillis += now - last;
+            if (++warmupWindows >= WARMUP_WINDOWS) ratePerMs = warmupDone / (double) warmupMillis;
+            return;
+        }
+        ratePerMs = prev * 0.5 + done / (double) (now - last) * 0.5;
+    }
+}
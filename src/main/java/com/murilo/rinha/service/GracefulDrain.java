@@ -0,0 +1,145 @@
+package com.murilo.rinha.service;
+
+import com.murilo.rinha.client.HostLockClient;
+import com.murilo.rinha.metrics.Counter;
+import com.murilo.rinha.metrics.MetricsRegistry;
+import com.murilo.rinha.repository.PaymentQueueRepository;
+import com.murilo.rinha.repository.QueuedPayment;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drenagem no SIGTERM: para de pegar trabalho, espera as chamadas em andamento ate o prazo e
+ * passa o que sobrou na fila para o peer ({@code POST /payments-handoff}), em lotes. Pagamento
+ * em duvida (timeout preso a um processador) nao vai: e resolvido aqui.
+ *
+ * Lote: registros {@code <idadeMs> <bytes>\n<corpo>} concatenados, sem JSON. O peer enfileira
+ * com a mesma idade, entao a ordem e o escalonamento por idade continuam valendo la. O ack
+ * local no WAL so acontece depois do 200 do peer. Se o peer falha, o resto volta para a fila
+ * e e processado aqui mesmo ate o prazo; o que sobrar fica no WAL para o proximo start (sem
+ * WAL, e perdido).
+ */
+public final class GracefulDrain {
+
+  @FunctionalInterface
+  public interface RecordConsumer {
+    void accept(long ageMillis, String body);
+  }
+
+  private final PaymentQueueRepository queue;
+  private final InMemoryPaymentDLQProcessor workers;
+  private final InlineFastPath inline;
+  private final PaymentService payments;
+  private final HostLockClient peer;
+  private final int batchSize;
+  private final boolean durable;
+  private final Counter sent;
+  private final Counter kept;
+
+  public GracefulDrain(PaymentQueueRepository queue, InMemoryPaymentDLQProcessor workers, InlineFastPath inline,
+      PaymentService payments, HostLockClient peer, int batchSize, boolean durable) {
+    this.queue = queue;
+    this.workers = workers;
+    this.inline = inline;
+    this.payments = payments;
+    this.peer = peer;
+    this.batchSize = Math.max(1, batchSize);
+    this.durable = durable;
+    MetricsRegistry m = MetricsRegistry.global();
+    String help = "Queued payments moved between instances on shutdown";
+    this.sent = m.counter("rinha_handoff_payments_total", help, "direction", "sent");
+    this.kept = m.counter("rinha_handoff_payments_total", help, "direction", "kept");
+  }
+
+  public void run(long timeoutMillis) {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    workers.stop();
+    inline.close();
+    try {
+      boolean idle = workers.awaitStopped(Math.max(0, deadline - System.currentTimeMillis()))
+          & inline.awaitIdle(Math.max(0, deadline - System.currentTimeMillis()));
+      if (!idle) System.err.println("Drain: in-flight payments did not finish in " + timeoutMillis + "ms");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    List<QueuedPayment> rest = new ArrayList<>();
+    List<QueuedPayment> local = new ArrayList<>();
+    // em duvida fica aqui: o peer nao sabe a qual processador esta preso e poderia cobrar em outro
+    for (QueuedPayment p : queue.takeAll()) (payments.isInDoubt(p) ? local : rest).add(p);
+    if (rest.isEmpty() && local.isEmpty()) return;
+    long now = System.nanoTime();
+    int handed = 0;
+    for (int from = 0; from < rest.size(); from += batchSize) {
+      List<QueuedPayment> batch = rest.subList(from, Math.min(rest.size(), from + batchSize));
+      try {
+        peer.handoff(encode(batch, now), deadlineNanos);
+      } catch (RuntimeException e) {
+        System.err.println("Drain: peer handoff failed: " + e.getMessage());
+        break;
+      }
+      for (QueuedPayment p : batch) queue.ack(p);
+      handed += batch.size();
+    }
+    sent.add(handed);
+    // peer fora: o resto tambem fica
+    local.addAll(rest.subList(handed, rest.size()));
+    if (!local.isEmpty()) {
+      // devolve para a fila e os workers voltam a processar aqui ate o prazo
+      for (QueuedPayment p : local) queue.requeue(p);
+      kept.add(local.size());
+      workers.resume();
+      try {
+        queue.awaitEmpty(Math.max(0, deadline - System.currentTimeMillis()));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      workers.stop();
+    }
+    int left = queue.size();
+    System.out.println("Drain: " + handed + " payments handed off, " + (local.size() - left) + " processed locally, " + left
+        + (durable || left == 0 ? " left in the WAL for the next start" : " dropped (WAL disabled)"));
+  }
+
+  static byte[] encode(List<QueuedPayment> batch, long nowNanos) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(batch.size() * 128);
+    for (QueuedPayment p : batch) {
+      byte[] body = p.body().getBytes(StandardCharsets.UTF_8);
+      long age = Math.max(0, TimeUnit.NANOSECONDS.toMillis(nowNanos - p.acceptedNanos()));
+      out.writeBytes((age + " " + body.length + "\n").getBytes(StandardCharsets.US_ASCII));
+      out.writeBytes(body);
+    }
+    return out.toByteArray();
+  }
+
+  /** @throws IllegalArgumentException se o lote esta truncado ou mal formado */
+  public static void decode(byte[] batch, RecordConsumer consumer) {
+    int p = 0;
+    while (p < batch.length) {
+      long age = 0;
+      int start = p;
+      while (p < batch.length && batch[p] != ' ') age = age * 10 + digit(batch[p++]);
+      if (p == start || p >= batch.length) throw new IllegalArgumentException("Bad handoff record at " + start);
+      p++;
+      int len = 0;
+      start = p;
+      while (p < batch.length && batch[p] != '\n') len = len * 10 + digit(batch[p++]);
+      if (p == start || p >= batch.length || p + 1 + len > batch.length) {
+        throw new IllegalArgumentException("Bad handoff record at " + start);
+      }
+      p++;
+      consumer.accept(age, new String(batch, p, len, StandardCharsets.UTF_8));
+      p += len;
+    }
+  }
+
+  private static int digit(byte b) {
+    if (b < '0' || b > '9') throw new IllegalArgumentException("Bad handoff record");
+    return b - '0';
+  }
+}
@@ -1,36 +1,89 @@
 package com.murilo.rinha.service;
 
-import com.murilo.rinha.config.AppConfig;
+import com.murilo.rinha.config.RuntimeConfig;
+import com.murilo.rinha.jfr.PaymentRetriedEvent;
 import com.murilo.rinha.repository.PaymentQueueRepository;
+import com.murilo.rinha.repository.QueuedPayment;
+
+import java.util.Arrays;
 
 public class InMemoryPaymentDLQProcessor {
 
-    private final int numberOfWorkers;
     private final PaymentQueueRepository dlqRepository;
     private final PaymentService paymentService;
+    private final AdmissionController admissionController;
+    /** Worker i roda enquanto i < target; sobe/desce com RINHA_DLQ_WORKER_NUM em runtime. */
+    private Thread[] workers = new Thread[0];
+    private volatile int target;
+    private boolean stopped;
 
-    public InMemoryPaymentDLQProcessor(PaymentQueueRepository dlqRepository, PaymentService paymentService) {
+    public InMemoryPaymentDLQProcessor(PaymentQueueRepository dlqRepository, PaymentService paymentService,
+        AdmissionController admissionController) {
         this.dlqRepository = dlqRepository;
         this.paymentService = paymentService;
-        this.numberOfWorkers = AppConfig.getDlqWorkerNum();
+        this.admissionController = admissionController;
     }
 
     public void start() {
-        for (int i = 0; i < numberOfWorkers; i++) {
-            Thread.startVirtualThread(this::runWorker);
+        resize(RuntimeConfig.current().dlqWorkers());
+        RuntimeConfig.onChange(t -> resize(t.dlqWorkers()));
+    }
+
+    /** Sobe os que faltam; os excedentes saem sozinhos no fim da rodada em andamento. */
+    public synchronized void resize(int workerCount) {
+        if (stopped) return;
+        target = workerCount;
+        if (workers.length < workerCount) workers = Arrays.copyOf(workers, workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            if (workers[i] == null) {
+                int index = i;
+                workers[i] = Thread.startVirtualThread(() -> runWorker(index));
+            }
+        }
+    }
+
+    /** Drenagem: cada worker termina o pagamento que tem na mao e sai, sem pegar outro. */
+    public synchronized void stop() {
+        stopped = true;
+        target = 0;
+    }
+
+    /** Drenagem sem peer: volta a processar o que foi devolvido a fila ate o prazo. */
+    public synchronized void resume() {
+        stopped = false;
+        resize(RuntimeConfig.current().dlqWorkers());
+    }
+
+    /** @return false se algum worker ainda estava com pagamento em andamento no fim do prazo */
+    public synchronized boolean awaitStopped(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (Arrays.stream(workers).anyMatch(w -> w != null)) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) return false;
+            wait(left);
         }
+        return true;
+    }
+
+    private synchronized boolean retire(int index) {
+        if (index < target) return false;
+        workers[index] = null;
+        notifyAll();
+        return true;
     }
 
-    private void runWorker() {
-        while (true) {
-            for (int i = 0; i < 550; i++) {
+    private void runWorker(int index) {
+        while (!retire(index)) {
+            RuntimeConfig.Tuning tuning = RuntimeConfig.current();
+            for (int i = 0; i < tuning.dlqBatch() && index < target; i++) {
                 var request = dlqRepository.dequeue();
                 if(request!=null){
                   processPayment(request);
                 }
             }
+            if (index >= target) continue;
             try {
-                Thread.sleep(500);
+                Thread.sleep(tuning.dlqIdleMs());
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
@@ -38,11 +91,24 @@ public class InMemoryPaymentDLQProcessor {
         }
     }
 
-    private void processPayment(String payment) {
+    private void processPayment(QueuedPayment payment) {
         try {
             paymentService.processPayment(payment);
+            dlqRepository.ack(payment);
+            admissionController.onProcessed();
         } catch (Exception e) {
-            dlqRepository.enqueue(payment);
+            dlqRepository.requeue(payment);
+            retried("worker", e, true);
+        }
+    }
+
+    static void retried(String source, Exception cause, boolean requeued) {
+        PaymentRetriedEvent event = new PaymentRetriedEvent();
+        if (event.shouldCommit()) {
+            event.source = source;
+            event.reason = cause.getClass().getSimpleName();
+            event.requeued = requeued;
+            event.commit();
         }
     }
 }
\ No newline at end of file
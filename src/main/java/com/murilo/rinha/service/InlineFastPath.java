@@ -0,0 +1,83 @@
+package com.murilo.rinha.service;
+
+import com.murilo.rinha.config.AppConfig;
+import com.murilo.rinha.repository.PaymentQueueRepository;
+import com.murilo.rinha.repository.QueuedPayment;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caminho rapido: com a fila (quase) vazia e o main de pe, um virtual thread proprio chama o
+ * processador logo depois do 200, sem esperar o ciclo dos workers. Nao e o thread da
+ * conexao: com keep-alive do haproxy o proximo request nela nao espera o processador.
+ * So entra quando a fila esta abaixo do limite, entao nao passa na frente de ninguem.
+ */
+public class InlineFastPath {
+
+    private final boolean enabled;
+    private final int maxQueueDepth;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private volatile boolean closed;
+    private final PaymentQueueRepository queue;
+    private final PaymentService paymentService;
+    private final ProcessorHealthCheckService mainHealthCheck;
+    private final AdmissionController admissionController;
+    private final ThreadFactory threads = Thread.ofVirtual().name("inline-", 0).factory();
+
+    public InlineFastPath(PaymentQueueRepository queue, PaymentService paymentService,
+        ProcessorHealthCheckService mainHealthCheck, AdmissionController admissionController) {
+        this.enabled = AppConfig.isInlineEnabled();
+        this.maxQueueDepth = AppConfig.getInlineMaxQueueDepth();
+        this.maxInFlight = AppConfig.getInlineMaxInFlight();
+        this.inFlight = new Semaphore(maxInFlight);
+        this.queue = queue;
+        this.paymentService = paymentService;
+        this.mainHealthCheck = mainHealthCheck;
+        this.admissionController = admissionController;
+    }
+
+    /** Reserva uma vaga; quem recebe true precisa chamar {@link #process}. */
+    public boolean tryEnter() {
+        return enabled && !closed && queue.size() < maxQueueDepth && mainHealthCheck.isUp() && inFlight.tryAcquire();
+    }
+
+    /** Dispara o processamento e volta; a vaga e liberada no fim da chamada. */
+    public void process(QueuedPayment payment) {
+        try {
+            threads.newThread(() -> run(payment)).start();
+        } catch (RuntimeException | Error e) {
+            queue.requeue(payment);
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private void run(QueuedPayment payment) {
+        try {
+            paymentService.processPayment(payment);
+            queue.ack(payment);
+            admissionController.onProcessed();
+        } catch (Exception e) {
+            // volta pra fila com o mesmo seq do WAL, na posicao da sua idade
+            queue.requeue(payment);
+            InMemoryPaymentDLQProcessor.retried("inline", e, true);
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    /** Drenagem: ninguem mais entra; quem ja entrou termina normalmente. */
+    public void close() {
+        closed = true;
+    }
+
+    /** @return false se ainda havia chamada inline em andamento no fim do prazo */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        if (!inFlight.tryAcquire(maxInFlight, timeoutMillis, TimeUnit.MILLISECONDS)) return false;
+        inFlight.release(maxInFlight);
+        return true;
+    }
+}
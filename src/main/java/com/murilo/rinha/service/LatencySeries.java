@@ -0,0 +1,65 @@
+package com.murilo.rinha.service;
+
+import com.murilo.rinha.metrics.Histogram;
+
+/**
+ * Sketches de latencia das chamadas aos processadores, um por segundo de requestedAt,
+ * num anel de {@code windowSeconds} por processador. Alimenta o /payments-summary/series;
+ * antes da janela nao ha latencia.
+ *
+ * A virada de um slot para um segundo novo zera o sketch; um registro que corre junto
+ * com a virada pode se perder, o que para quantis e aceitavel.
+ */
+public final class LatencySeries {
+
+  private static final class Slot {
+    volatile long second = Long.MIN_VALUE;
+    final Histogram sketch = new Histogram();
+  }
+
+  private final Slot[][] slots;
+  private final int window;
+
+  public LatencySeries(int processors, int windowSeconds) {
+    this.window = Math.max(0, windowSeconds);
+    this.slots = new Slot[processors][window];
+    for (Slot[] ring : slots) {
+      for (int i = 0; i < window; i++) ring[i] = new Slot();
+    }
+  }
+
+  public void record(int processor, long requestedAtMillis, long nanos) {
+    if (window == 0) return;
+    long second = Math.floorDiv(requestedAtMillis, 1000);
+    Slot slot = slots[processor][Math.floorMod(second, window)];
+    if (slot.second < second) roll(slot, second);
+    if (slot.second == second) slot.sketch.record(nanos);
+  }
+
+  private static void roll(Slot slot, long second) {
+    synchronized (slot) {
+      if (slot.second < second) {
+        slot.sketch.reset();
+        slot.second = second;
+      }
+    }
+  }
+
+  /**
+   * Junta em {@code into} os segundos que comecam em [from, to], como os rollups do ledger.
+   * @return false se o intervalo esta todo fora da janela
+   */
+  public boolean collect(int processor, long fromMillis, long toMillis, Histogram into) {
+    if (window == 0) return false;
+    long first = Math.floorDiv(fromMillis + 999, 1000);
+    long last = Math.floorDiv(toMillis, 1000);
+    first = Math.max(first, System.currentTimeMillis() / 1000 - window + 1);
+    if (first > last) return false;
+    Slot[] ring = slots[processor];
+    for (long second = first; second <= last; second++) {
+      Slot slot = ring[Math.floorMod(second, window)];
+      if (slot.second == second) into.mergeFrom(slot.sketch);
+    }
+    return true;
+  }
+}
@@ -1,61 +1,277 @@
 package com.murilo.rinha.service;
 
+import com.murilo.rinha.client.AlreadyProcessedException;
 import com.murilo.rinha.client.HostLockClient;
 import com.murilo.rinha.client.PaymentProcessorClient;
+import com.murilo.rinha.config.AppConfig;
+import com.murilo.rinha.config.DeadlineExceededException;
+import com.murilo.rinha.config.MillisClock;
+import com.murilo.rinha.config.RuntimeConfig;
+import com.murilo.rinha.jfr.PaymentRecordedEvent;
+import com.murilo.rinha.jfr.PaymentSentEvent;
+import com.murilo.rinha.jfr.SummaryComputedEvent;
+import com.murilo.rinha.metrics.Counter;
+import com.murilo.rinha.metrics.Histogram;
+import com.murilo.rinha.metrics.MetricsRegistry;
+import com.murilo.rinha.repository.CorrelationIdSet;
 import com.murilo.rinha.repository.PaymentQueueRepository;
 import com.murilo.rinha.repository.PaymentRepository;
+import com.murilo.rinha.repository.PaymentTotals;
+import com.murilo.rinha.repository.QueuedPayment;
 
+import java.io.IOException;
 import java.math.BigDecimal;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class PaymentService {
 
-  private final PaymentProcessorClient main;
-  private final PaymentProcessorClient fall;
+  private static final long ANY_UP_POLL_MS = 10;
+  private static final long IN_DOUBT_WAIT_MS = 1000;
+
+  /** Tentativa que estourou o prazo: o processador pode ter cobrado mesmo assim. */
+  private record InDoubt(int processor, MillisClock.Stamp requestedAt) {}
+
+  /** Recebe um bucket por vez, em ordem; os arrays sao reaproveitados entre chamadas. */
+  @FunctionalInterface
+  public interface SeriesSink {
+    void bucket(long startMillis, PaymentTotals[] totals, Histogram[] latency) throws IOException;
+  }
+
+  private final ProcessorRegistry processors;
   private final HostLockClient hostLockClient;
   private final PaymentRepository repository;
-  private final ProcessorHealthCheckService mainHealthCheck;
-  private final ProcessorHealthCheckService fallbackHealthCheck;
-
-  public PaymentService(PaymentProcessorClient main, PaymentProcessorClient fall,
-      HostLockClient hostLockClient, PaymentRepository repository,
-      PaymentQueueRepository paymentQueueRepository,
-      ProcessorHealthCheckService mainHealthCheck, ProcessorHealthCheckService fallbackHealthCheck) {
-    this.main = main;
-    this.fall = fall;
+  private final long paymentBudgetNanos = TimeUnit.MILLISECONDS.toNanos(AppConfig.getPaymentDeadlineMs());
+  private final long minTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(AppConfig.getProcessorMinTimeoutMs());
+  private final CorrelationIdSet recordedIds;
+  private final ProcessorStats[] stats;
+  private final Counter dedupeHits = MetricsRegistry.global().counter("rinha_dedupe_hits_total",
+      "Payments skipped because their correlationId was already seen", "stage", "recorded");
+  private final SummaryCache summaryCache;
+  private final LatencySeries latencySeries;
+  /** Ordem normal: prioridade do registry. */
+  private final int[] priorityOrder;
+  /**
+   * Por correlationId, enquanto o resultado do timeout nao e conhecido. So o mesmo processador
+   * pode receber de novo, com o mesmo requestedAt: ou ele cobra agora, ou responde 422 porque a
+   * primeira tentativa passou. Mandar para outro processador cobraria duas vezes.
+   */
+  private final Map<String, InDoubt> inDoubt = new ConcurrentHashMap<>();
+  private final Counter inDoubtResolved = MetricsRegistry.global().counter("rinha_payments_in_doubt_total",
+      "Timed-out attempts later settled on the same processor", "outcome", "charged");
+  private final Counter inDoubtDuplicate = MetricsRegistry.global().counter("rinha_payments_in_doubt_total",
+      "Timed-out attempts later settled on the same processor", "outcome", "already_charged");
+  private final Counter purgedInFlight = MetricsRegistry.global().counter("rinha_purged_in_flight_total",
+      "Payments completed after a purge and dropped with the ledger generation they were dequeued under");
+  private final Counter escalated = MetricsRegistry.global().counter("rinha_queue_escalations_total",
+      "Attempts routed to the fastest healthy processor because the payment passed the age threshold");
+  private final Histogram localSummaryTime = MetricsRegistry.global().histogram("rinha_summary_local_seconds",
+      "Time computing the local summary from the ledger");
+  private final Histogram seriesTime = MetricsRegistry.global().histogram("rinha_summary_series_seconds",
+      "Time computing and streaming a whole /payments-summary/series response");
+
+  public PaymentService(ProcessorRegistry processors, HostLockClient hostLockClient, PaymentRepository repository,
+      PaymentQueueRepository paymentQueueRepository, CorrelationIdSet recordedIds) {
+    this.processors = processors;
     this.hostLockClient = hostLockClient;
     this.repository = repository;
-    this.mainHealthCheck = mainHealthCheck;
-    this.fallbackHealthCheck = fallbackHealthCheck;
+    this.recordedIds = recordedIds;
+    this.stats = new ProcessorStats[processors.size()];
+    for (int id = 0; id < stats.length; id++) stats[id] = new ProcessorStats(processors.name(id));
+    this.priorityOrder = new int[processors.size()];
+    for (int id = 0; id < priorityOrder.length; id++) priorityOrder[id] = id;
+    this.latencySeries = new LatencySeries(processors.size(), AppConfig.getSeriesLatencyWindowS());
+    // save pode chegar ate um prazo depois do requestedAt; tentativa em duvida grava ainda mais tarde,
+    // com o requestedAt original (cai no caminho de escrita atrasada)
+    this.summaryCache = new SummaryCache(AppConfig.isSummaryCacheEnabled(),
+        (long) processors.size() * AppConfig.getPaymentDeadlineMs() + 1000, AppConfig.getSummaryCacheEntries());
   }
 
-  public void processPayment(String req) throws InterruptedException {
+  public void processPayment(QueuedPayment payment) throws InterruptedException {
+    // geracao do ledger fixada na saida da fila: um purge no meio da chamada nao recebe este pagamento
+    processPayment(payment, repository.generation());
+  }
 
+  private void processPayment(QueuedPayment payment, long generation) throws InterruptedException {
+    String req = payment.body();
     String correlationId = extractValue(req, "correlationId");
     String amount = extractValue(req, "amount");
-    Instant requestedAt = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    MillisClock.Stamp requestedAt = MillisClock.now();
     if(correlationId == null || amount == null) return;
-    if (mainHealthCheck.isUp()) {
-      main.process(correlationId, amount, requestedAt);
-      repository.save("main", requestedAt, amount, correlationId);
-    } else if(fallbackHealthCheck.isUp()) {
-      fall.process(correlationId, amount, requestedAt);
-      repository.save("fallback", requestedAt, amount, correlationId);
+    // retry de algo que ja foi cobrado e gravado: nao chama o processador de novo
+    if (recordedIds != null && recordedIds.contains(correlationId)) {
+      dedupeHits.inc();
+      return;
+    }
+    InDoubt doubt = inDoubt.get(correlationId);
+    if (doubt != null) {
+      settleInDoubt(payment, generation, correlationId, amount, doubt);
+      return;
+    }
+    long deadline = deadlineFor(payment.acceptedNanos());
+    long escalateAfterNanos = TimeUnit.MILLISECONDS.toNanos(RuntimeConfig.current().queueEscalateAgeMs());
+    long age = System.nanoTime() - payment.acceptedNanos();
+    boolean aged = escalateAfterNanos > 0 && age >= escalateAfterNanos;
+    if (aged) escalated.inc();
+    // em ordem de prioridade (ou do mais rapido, se ja esperou demais): o primeiro de pe
+    int[] order = aged ? soonestFirst() : priorityOrder;
+    for (int i = 0; i < order.length; i++) {
+      int id = order[i];
+      ProcessorHealthCheckService health = processors.get(id).health;
+      if (!health.isUp()) continue;
+      try {
+        call(id, correlationId, amount, requestedAt, deadline);
+      } catch (DeadlineExceededException e) {
+        // travado: marca down; o pagamento volta pra fila preso a este processador
+        health.setDown("deadline");
+        inDoubt.put(correlationId, new InDoubt(id, requestedAt));
+        throw e;
+      } catch (AlreadyProcessedException e) {
+        // replay do WAL (ou retry) de algo que este processador ja cobrou: conta como liquidado nele
+      }
+      record(generation, id, requestedAt, amount, correlationId, payment.acceptedNanos());
+      return;
+    }
+    if (aged) {
+      // velho demais para esperar o main: o primeiro que voltar leva
+      while (!anyUpAfter(priorityOrder, -1)) Thread.sleep(ANY_UP_POLL_MS);
+    } else if (escalateAfterNanos > 0) {
+      processors.primary().health.waitUntilUp(TimeUnit.NANOSECONDS.toMillis(escalateAfterNanos - age) + 1);
     } else {
-      mainHealthCheck.waitUntilUp();
-      processPayment(req);
+      processors.primary().health.waitUntilUp();
     }
+    processPayment(payment, generation);
+  }
 
+  /** Preso a um processador por um timeout; so pode ser resolvido nesta instancia. */
+  public boolean isInDoubt(QueuedPayment payment) {
+    if (inDoubt.isEmpty()) return false;
+    try {
+      return inDoubt.containsKey(extractValue(payment.body(), "correlationId"));
+    } catch (RuntimeException e) {
+      return false;
+    }
+  }
+
+  /** Reenvia ao mesmo processador, ignorando escalonamento e failover; falhou de novo, continua em duvida. */
+  private void settleInDoubt(QueuedPayment payment, long generation, String correlationId, String amount,
+      InDoubt doubt) throws InterruptedException {
+    ProcessorHealthCheckService health = processors.get(doubt.processor()).health;
+    if (!health.isUp() && !health.waitUntilUp(IN_DOUBT_WAIT_MS)) {
+      throw new DeadlineExceededException("Waiting for " + processors.name(doubt.processor()) + " to settle "
+          + correlationId);
+    }
+    try {
+      call(doubt.processor(), correlationId, amount, doubt.requestedAt(), deadlineFor(System.nanoTime()));
+      inDoubtResolved.inc();
+    } catch (AlreadyProcessedException e) {
+      inDoubtDuplicate.inc();
+    } catch (DeadlineExceededException e) {
+      health.setDown("deadline");
+      throw e;
+    }
+    inDoubt.remove(correlationId);
+    record(generation, doubt.processor(), doubt.requestedAt(), amount, correlationId, payment.acceptedNanos());
+  }
+
+  private boolean anyUpAfter(int[] order, int i) {
+    for (int next = i + 1; next < order.length; next++) {
+      if (processors.get(order[next]).health.isUp()) return true;
+    }
+    return false;
+  }
+
+  /** Ids pelo minResponseTime do health check, menor primeiro; empate fica com a prioridade. */
+  private int[] soonestFirst() {
+    int[] order = priorityOrder.clone();
+    for (int i = 1; i < order.length; i++) {
+      int id = order[i];
+      int rt = processors.get(id).health.minResponseTime();
+      int j = i - 1;
+      while (j >= 0 && processors.get(order[j]).health.minResponseTime() > rt) {
+        order[j + 1] = order[j];
+        j--;
+      }
+      order[j + 1] = id;
+    }
+    return order;
+  }
+
+  private void call(int id, String correlationId, String amount, MillisClock.Stamp requestedAt, long deadline) {
+    PaymentProcessorClient client = processors.get(id).client;
+    ProcessorStats stats = this.stats[id];
+    long start = System.nanoTime();
+    PaymentSentEvent event = new PaymentSentEvent();
+    event.begin();
+    String outcome = "error";
+    try {
+      client.process(correlationId, amount, requestedAt, deadline);
+      stats.ok.inc();
+      outcome = "ok";
+    } catch (DeadlineExceededException e) {
+      stats.timeout.inc();
+      outcome = "timeout";
+      throw e;
+    } catch (AlreadyProcessedException e) {
+      outcome = "duplicate";
+      throw e;
+    } catch (RuntimeException e) {
+      stats.error.inc();
+      throw e;
+    } finally {
+      stats.rtt.recordSince(start);
+      latencySeries.record(id, requestedAt.millis(), System.nanoTime() - start);
+      event.end();
+      if (event.shouldCommit()) {
+        event.processor = stats.processor;
+        event.outcome = outcome;
+        event.budget = deadline - start;
+        event.commit();
+      }
+    }
+  }
+
+  private void record(long generation, int id, MillisClock.Stamp requestedAt, String amount, String correlationId,
+      long acceptedNanos) {
+    if (recordedIds == null || recordedIds.add(correlationId)) {
+      if (!repository.save(generation, id, requestedAt.millis(), amount, correlationId)) {
+        // purge depois do dequeue: pertence a geracao descartada, o id nao fica marcado na nova
+        if (recordedIds != null) recordedIds.remove(correlationId);
+        purgedInFlight.inc();
+        return;
+      }
+      summaryCache.onWrite(requestedAt.millis());
+      PaymentRecordedEvent event = new PaymentRecordedEvent();
+      if (event.shouldCommit()) {
+        event.processor = processors.name(id);
+        event.sinceAccepted = System.nanoTime() - acceptedNanos;
+        event.commit();
+      }
+    }
+  }
 
+  /**
+   * Prazo = aceite + orcamento total, mas nunca menos que o timeout minimo a partir de agora.
+   * Com {@code System.nanoTime()} (reenvio em duvida) e so o orcamento inteiro a partir de agora.
+   */
+  private long deadlineFor(long acceptedNanos) {
+    long budget = acceptedNanos + paymentBudgetNanos;
+    long floor = System.nanoTime() + minTimeoutNanos;
+    return budget - floor > 0 ? budget : floor;
   }
 
-  private String extractValue(String json, String key) {
-    String search = "\"" + key + "\":";
+  private static final String KEY_CORRELATION_ID = "\"correlationId\":";
+  private static final String KEY_AMOUNT = "\"amount\":";
+
+  public static String extractValue(String json, String key) {
+    // String.indexOf ja e intrinsic vetorizado; o que custava era montar a chave a cada chamada
+    String search = switch (key) {
+      case "correlationId" -> KEY_CORRELATION_ID;
+      case "amount" -> KEY_AMOUNT;
+      default -> "\"" + key + "\":";
+    };
     int start = json.indexOf(search);
     if (start == -1) {
       throw new IllegalArgumentException("Key not found: " + key);
@@ -83,60 +299,141 @@ public class PaymentService {
     }
   }
 
-  public Map<String, Object> getPaymentSummary(Instant from, Instant to) {
+  /** Zera o ledger local (troca de geracao), o cache de summaries e os ids ja gravados. */
+  public void purge() {
+    inDoubt.clear();
+    repository.purge();
+    summaryCache.invalidateAll();
+    if (recordedIds != null) recordedIds.clear();
+  }
+
+  public void purgePeer() {
+    hostLockClient.purge();
+  }
+
+  /** Indexado pelo id do processador; from/to em epoch millis, inclusivos. */
+  public PaymentTotals[] getPaymentSummary(long from, long to) {
+    SummaryComputedEvent event = new SummaryComputedEvent();
+    event.begin();
     try {
-      Map<String, Object> result = new HashMap<>();
-      result.put("default", summarize("main", from, to));
-      result.put("fallback", summarize("fallback", from, to));
-      return result;
+      return summaryCache.get("local", from, to, true, () -> {
+        PaymentTotals[] result = new PaymentTotals[processors.size()];
+        for (int id = 0; id < result.length; id++) result[id] = summarize(id, from, to);
+        return result;
+      });
     } catch (Exception e) {
       throw new RuntimeException(e);
     } finally {
-      this.mainHealthCheck.setUp();
+      processors.primary().health.setUp("summary");
+      commitSummary(event, "local", from, to);
+    }
+  }
+
+  /**
+   * Summary local em buckets de {@code step} ms a partir de {@code from}, entregues um a um.
+   * Cada bucket le so a sua fatia do ledger; latencia tem resolucao de 1s e vem null fora
+   * da janela de sketches.
+   */
+  public void summarySeries(long from, long to, long step, SeriesSink sink) throws IOException {
+    PaymentTotals[] totals = new PaymentTotals[processors.size()];
+    Histogram[] sketches = new Histogram[processors.size()];
+    Histogram[] latency = new Histogram[processors.size()];
+    for (int id = 0; id < sketches.length; id++) sketches[id] = new Histogram();
+    long began = System.nanoTime();
+    try {
+      for (long start = from; start <= to; start += step) {
+        long end = Math.min(to, start + step - 1);
+        for (int id = 0; id < totals.length; id++) {
+          // fatias nao entram no rinha_summary_local_seconds: distorceriam o /payments-summary
+          totals[id] = repository.optimizedSummary(id, start, end);
+          sketches[id].reset();
+          latency[id] = latencySeries.collect(id, start, end, sketches[id]) ? sketches[id] : null;
+        }
+        sink.bucket(start, totals, latency);
+      }
+    } finally {
+      seriesTime.recordSince(began);
     }
   }
 
-  private Map<String, Object> summarize(String source, Instant from, Instant to) {
-    return repository.optimizedSummary(source, from, to);
+  private PaymentTotals summarize(int id, long from, long to) {
+    long start = System.nanoTime();
+    try {
+      return repository.optimizedSummary(id, from, to);
+    } finally {
+      localSummaryTime.recordSince(start);
+    }
   }
 
-  public Map<String, Object> getPaymentSummaryLock(Instant from, Instant to) {
+  public PaymentTotals[] getPaymentSummaryLock(long from, long to) {
+    SummaryComputedEvent event = new SummaryComputedEvent();
+    event.begin();
+    try {
+      // inclui escritas do peer, que este cache nao ve: so coalesce, nao retem
+      return summaryCache.get("merged", from, to, false, () -> merge(from, to));
+    } finally {
+      processors.primary().health.setUp("summary");
+      commitSummary(event, "merged", from, to);
+    }
+  }
+
+  private PaymentTotals[] merge(long from, long to) {
     try {
       CompletableFuture<Map<String, Object>> remoteFuture = CompletableFuture.supplyAsync(
           () -> hostLockClient.getSummary(from, to));
-      CompletableFuture<Map<String, Object>> localFuture = CompletableFuture.supplyAsync(
+      CompletableFuture<PaymentTotals[]> localFuture = CompletableFuture.supplyAsync(
           () -> this.getPaymentSummary(from, to));
 
       CompletableFuture.allOf(remoteFuture, localFuture).join();
 
       Map<String, Object> remoteMap = remoteFuture.join();
-      Map<String, Object> localMap = localFuture.join();
-
-      Map<String, Object> result = new HashMap<>();
-
-      for (String key : List.of("default", "fallback")) {
-        Map<String, Object> remote = (Map<String, Object>) remoteMap.get(key);
-        Map<String, Object> local = (Map<String, Object>) localMap.get(key);
+      PaymentTotals[] local = localFuture.join();
 
+      PaymentTotals[] result = new PaymentTotals[local.length];
+      for (int id = 0; id < local.length; id++) {
+        // o peer responde por nome; processador que ele nao conhece conta zero
+        Map<String, Object> remote = (Map<String, Object>) remoteMap.get(processors.name(id));
+        if (remote == null) {
+          result[id] = local[id];
+          continue;
+        }
         int remoteRequests = Integer.parseInt(remote.get("totalRequests").toString());
-        int localRequests = (int) local.get("totalRequests");
-
         BigDecimal remoteAmount = new BigDecimal(remote.get("totalAmount").toString());
-        BigDecimal localAmount = (BigDecimal) local.get("totalAmount");
-
-        Map<String, Object> merged = new HashMap<>();
-        merged.put("totalRequests", remoteRequests + localRequests);
-        merged.put("totalAmount", remoteAmount.add(localAmount));
-
-        result.put(key, merged);
+        result[id] = local[id].plus(new PaymentTotals(remoteRequests, remoteAmount));
       }
       return result;
     } catch (Exception e) {
       e.printStackTrace();
       return null;
-    } finally {
-      this.mainHealthCheck.setUp();
     }
   }
 
-}
\ No newline at end of file
+  private static void commitSummary(SummaryComputedEvent event, String scope, long from, long to) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.scope = scope;
+      event.from = from;
+      event.to = to;
+      event.commit();
+    }
+  }
+
+  private static final class ProcessorStats {
+    final Histogram rtt;
+    final Counter ok;
+    final Counter error;
+    final Counter timeout;
+
+    final String processor;
+
+    ProcessorStats(String processor) {
+      this.processor = processor;
+      MetricsRegistry m = MetricsRegistry.global();
+      this.rtt = m.histogram("rinha_processor_rtt_seconds", "Payment processor call round trip", "processor", processor);
+      String help = "Payment processor calls by outcome";
+      this.ok = m.counter("rinha_processor_calls_total", help, "processor", processor, "outcome", "ok");
+      this.error = m.counter("rinha_processor_calls_total", help, "processor", processor, "outcome", "error");
+      this.timeout = m.counter("rinha_processor_calls_total", help, "processor", processor, "outcome", "timeout");
+    }
+  }
+}
@@ -2,6 +2,9 @@ package com.murilo.rinha.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.murilo.rinha.config.AppConfig;
+import com.murilo.rinha.config.RuntimeConfig;
+import com.murilo.rinha.jfr.HealthStateChangeEvent;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
@@ -19,15 +22,36 @@ public class ProcessorHealthCheckService {
     private ScheduledFuture<?> resetFuture = null;
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final Object monitor = new Object();
+    private final String processor;
+    private final SharedHealthState shared;
+    private final int slot;
+    private volatile int minResponseTime;
+    private long lastProbedAt;
 
     public ProcessorHealthCheckService(String mainHost, String mainPort) {
+        this("default", mainHost, mainPort, null, 0);
+    }
+
+    /**
+     * Com {@code shared}, so a instancia eleita chama o endpoint (que tem rate limit) e
+     * publica no slot; as demais aplicam o que foi publicado. {@code name} e o do
+     * {@link ProcessorRegistry}, o mesmo que os outros eventos JFR usam.
+     */
+    public ProcessorHealthCheckService(String name, String mainHost, String mainPort, SharedHealthState shared,
+            int slot) {
+        this.processor = name;
         this.httpClient = HttpClient.newHttpClient();
         this.healthUrl = "http://" + mainHost + ":" + mainPort + "/payments/service-health";
+        this.shared = shared;
+        this.slot = slot;
         startHealthCheck();
     }
 
     private void startHealthCheck() {
         scheduler.scheduleAtFixedRate(() -> {
+            if (shared != null && !shared.isLeader()) return;
+            boolean failing = true;
+            int minResponse = 0;
             try {
                 HttpRequest request = HttpRequest.newBuilder()
                         .uri(URI.create(healthUrl))
@@ -36,40 +60,83 @@ public class ProcessorHealthCheckService {
                 HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
                 if (response.statusCode() == 200) {
                     JsonNode jsonNode = objectMapper.readTree(response.body());
-                    boolean failing = jsonNode.get("failing").asBoolean();
-
-                    if (!failing) {
-                        setUp();
-                    } else {
-                        setDown();
-                    }
-                } else {
-                    setDown();
+                    failing = jsonNode.get("failing").asBoolean();
+                    JsonNode min = jsonNode.get("minResponseTime");
+                    if (min != null) minResponse = min.asInt();
                 }
             } catch (Exception e) {
-                setDown();
+                failing = true;
             }
-        }, 0, 5, TimeUnit.SECONDS);
+            long now = System.currentTimeMillis();
+            if (shared != null) shared.publish(slot, failing, minResponse, now);
+            apply(failing, minResponse, now);
+        }, 0, AppConfig.getHealthProbeIntervalMs(), TimeUnit.MILLISECONDS);
+
+        if (shared != null) {
+            long tick = AppConfig.getHealthReadTickMs();
+            scheduler.scheduleAtFixedRate(() -> {
+                if (shared.isLeader()) return;
+                SharedHealthState.Snapshot s = shared.read(slot);
+                if (s != null) apply(s.failing(), s.minResponseTime(), s.probedAtMillis());
+            }, tick, tick, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // so roda na thread do scheduler
+    private void apply(boolean failing, int minResponse, long probedAt) {
+        if (probedAt == lastProbedAt) return;
+        lastProbedAt = probedAt;
+        minResponseTime = minResponse;
+        if (failing) {
+            setDown("probe");
+        } else {
+            setUp("probe");
+        }
     }
 
     public void setDown() {
+        setDown("external");
+    }
+
+    public void setDown(String cause) {
         synchronized (monitor) {
+            if (isUp) stateChanged(false, cause);
             isUp = false;
             if (resetFuture == null || resetFuture.isDone()) {
-                resetFuture = scheduler.schedule(() -> setUp(), 5040, TimeUnit.MILLISECONDS);
+                resetFuture = scheduler.schedule(() -> setUp("reset"), RuntimeConfig.current().healthResetMs(),
+                    TimeUnit.MILLISECONDS);
             }
         }
     }
 
     public void setUp() {
+        setUp("external");
+    }
+
+    public void setUp(String cause) {
         synchronized (monitor) {
             if (!isUp) {
                 isUp = true;
+                stateChanged(true, cause);
                 monitor.notifyAll();
             }
         }
     }
 
+    private void stateChanged(boolean up, String cause) {
+        HealthStateChangeEvent event = new HealthStateChangeEvent();
+        if (event.shouldCommit()) {
+            event.processor = processor;
+            event.up = up;
+            event.cause = cause;
+            event.commit();
+        }
+    }
+
+    public int minResponseTime() {
+        return minResponseTime;
+    }
+
     public boolean isUp() {
         return isUp;
     }
@@ -81,4 +148,16 @@ public class ProcessorHealthCheckService {
             }
         }
     }
+
+    /** Como {@link #waitUntilUp()}, mas desiste depois de {@code timeoutMillis}; devolve se esta de pe. */
+    public boolean waitUntilUp(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (monitor) {
+            long left;
+            while (!isUp && (left = deadline - System.currentTimeMillis()) > 0) {
+                monitor.wait(left);
+            }
+            return isUp;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,151 @@
+package com.murilo.rinha.service;
+
+import com.murilo.rinha.client.MyUltraHttpPaymentProcessorClient;
+import com.murilo.rinha.client.PaymentProcessorClient;
+import com.murilo.rinha.config.IsoTime;
+import com.murilo.rinha.config.RuntimeConfig;
+import com.murilo.rinha.metrics.Histogram;
+import com.murilo.rinha.repository.PaymentTotals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Processadores configurados, em ordem de prioridade. O indice na lista e o id usado
+ * pelo roteamento, pelos ledgers e pelo summary; o nome so aparece no JSON e nas metricas.
+ *
+ * Spec: {@code nome=host:porta[,nome=host:porta...]}, ex.
+ * {@code default=payment-processor-default:8080,fallback=payment-processor-fallback:8080}.
+ */
+public final class ProcessorRegistry {
+
+  public record Endpoint(String name, String host, int port) {}
+
+  public static final class Processor {
+    public final int id;
+    public final String name;
+    public final PaymentProcessorClient client;
+    public final ProcessorHealthCheckService health;
+
+    Processor(int id, String name, PaymentProcessorClient client, ProcessorHealthCheckService health) {
+      this.id = id;
+      this.name = name;
+      this.client = client;
+      this.health = health;
+    }
+  }
+
+  private final Processor[] processors;
+  /** Prefixo JSON de cada processador: {@code "nome":{"totalRequests":}. */
+  private final String[] jsonKeys;
+  /** Mesmo prefixo, dentro de um bucket do series. */
+  private final String[] seriesKeys;
+
+  public ProcessorRegistry(List<Endpoint> endpoints, SharedHealthState sharedHealth) throws IOException {
+    this.processors = new Processor[endpoints.size()];
+    this.jsonKeys = new String[endpoints.size()];
+    this.seriesKeys = new String[endpoints.size()];
+    for (int id = 0; id < processors.length; id++) {
+      Endpoint e = endpoints.get(id);
+      var client = new MyUltraHttpPaymentProcessorClient(e.host(), e.port(), "/payments",
+          RuntimeConfig.current().processorPoolSize());
+      RuntimeConfig.onChange(t -> client.resize(t.processorPoolSize()));
+      var health = new ProcessorHealthCheckService(e.name(), e.host(), String.valueOf(e.port()),
+          sharedHealth, id);
+      processors[id] = new Processor(id, e.name(), client, health);
+      jsonKeys[id] = (id == 0 ? "{\"" : "},\"") + e.name() + "\":{\"totalRequests\":";
+      seriesKeys[id] = (id == 0 ? ",\"" : "},\"") + e.name() + "\":{\"totalRequests\":";
+    }
+  }
+
+  public static List<Endpoint> parse(String spec) {
+    List<Endpoint> out = new ArrayList<>();
+    for (String part : spec.split(",")) {
+      part = part.trim();
+      if (part.isEmpty()) continue;
+      int eq = part.indexOf('=');
+      int colon = part.lastIndexOf(':');
+      if (eq <= 0 || colon < eq) throw new IllegalArgumentException("Invalid processor spec: " + part);
+      String name = part.substring(0, eq).trim();
+      for (Endpoint e : out) {
+        if (e.name().equals(name)) throw new IllegalArgumentException("Duplicate processor: " + name);
+      }
+      out.add(new Endpoint(name, part.substring(eq + 1, colon).trim(), Integer.parseInt(part.substring(colon + 1).trim())));
+    }
+    if (out.isEmpty()) throw new IllegalArgumentException("No processors configured");
+    return out;
+  }
+
+  public int size() {
+    return processors.length;
+  }
+
+  public Processor get(int id) {
+    return processors[id];
+  }
+
+  /** O de maior prioridade, usado pelo fast path e pela pausa durante summaries. */
+  public Processor primary() {
+    return processors[0];
+  }
+
+  public String name(int id) {
+    return processors[id].name;
+  }
+
+  /** @return -1 se nao existe; so na borda (resposta do peer), nunca no caminho quente */
+  public int idOf(String name) {
+    for (Processor p : processors) {
+      if (p.name.equals(name)) return p.id;
+    }
+    return -1;
+  }
+
+  /** {@code {"nome":{"totalRequests":N,"totalAmount":X},...}} sem passar pelo Jackson. */
+  public byte[] summaryJson(PaymentTotals[] totals) {
+    StringBuilder sb = new StringBuilder(64 * processors.length);
+    for (int id = 0; id < processors.length; id++) {
+      PaymentTotals t = totals[id];
+      sb.append(jsonKeys[id]).append(t.totalRequests())
+          .append(",\"totalAmount\":").append(t.totalAmount().toPlainString());
+    }
+    return sb.append("}}").toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * {@code {"start":ISO,"nome":{"totalRequests":N,"totalAmount":X,"latency":L},...}}, com L
+   * {@code {"calls":N,"p50":ms,"p90":ms,"p99":ms}} ou null.
+   */
+  public void appendSeriesBucket(StringBuilder sb, long startMillis, PaymentTotals[] totals, Histogram[] latency) {
+    sb.append("{\"start\":\"").append(IsoTime.format(startMillis)).append('"');
+    for (int id = 0; id < processors.length; id++) {
+      PaymentTotals t = totals[id];
+      sb.append(seriesKeys[id]).append(t.totalRequests())
+          .append(",\"totalAmount\":").append(t.totalAmount().toPlainString())
+          .append(",\"latency\":");
+      Histogram h = latency[id];
+      if (h == null) {
+        sb.append("null");
+      } else {
+        sb.append("{\"calls\":").append(h.count());
+        appendMillis(sb.append(",\"p50\":"), h.quantile(0.50));
+        appendMillis(sb.append(",\"p90\":"), h.quantile(0.90));
+        appendMillis(sb.append(",\"p99\":"), h.quantile(0.99));
+        sb.append('}');
+      }
+    }
+    sb.append("}}");
+  }
+
+  /** Nanos como ms com 3 casas, sem passar por double/format. */
+  private static void appendMillis(StringBuilder sb, long nanos) {
+    long micros = nanos / 1000;
+    long frac = micros % 1000;
+    sb.append(micros / 1000).append('.');
+    if (frac < 100) sb.append('0');
+    if (frac < 10) sb.append('0');
+    sb.append(frac);
+  }
+}
@@ -0,0 +1,108 @@
+package com.murilo.rinha.service;
+
+import com.murilo.rinha.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Estado de saude dos processadores num arquivo mmap compartilhado entre as instancias
+ * (mesmo volume do socket). Quem segura o lock do arquivo e o unico a chamar
+ * /payments/service-health e publica; os outros so leem. Se o dono morre o SO solta o
+ * lock e outra instancia assume na proxima tentativa.
+ *
+ * Cada slot e um seqlock: [seq][failing][minResponseTime][probedAtMillis], seq impar
+ * durante a escrita. Leitura sem lock, repete se o seq mudou. O arquivo sobrevive ao dono: se
+ * ele morreu no meio de um publish o seq ficou impar, entao o proximo normaliza para par antes
+ * de escrever e o leitor desiste depois de {@link #MAX_READ_ATTEMPTS} (slot tratado como velho).
+ */
+public final class SharedHealthState {
+
+    public record Snapshot(boolean failing, int minResponseTime, long probedAtMillis) {}
+
+    private static final int SLOT_BYTES = 64;
+    private static final int MAX_READ_ATTEMPTS = 1000;
+    private static final int SEQ = 0, FAILING = 8, MIN_RESPONSE = 16, PROBED_AT = 24;
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private volatile FileLock leadership;
+
+    /** Um slot por processador, indexado pelo id do ProcessorRegistry. */
+    public SharedHealthState(Path file, int slots, long electionIntervalMillis) throws IOException {
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) slots * SLOT_BYTES);
+
+        MetricsRegistry.global().gauge("rinha_health_prober",
+            "1 if this instance is the elected health prober", () -> isLeader() ? 1 : 0);
+
+        tryAcquire();
+        long every = Math.max(100, electionIntervalMillis);
+        Thread.ofPlatform().daemon().name("health-election").start(() -> {
+            for (;;) {
+                try {
+                    Thread.sleep(every);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (leadership == null) tryAcquire();
+            }
+        });
+    }
+
+    public boolean isLeader() {
+        return leadership != null;
+    }
+
+    public void publish(int slot, boolean failing, int minResponseTime, long probedAtMillis) {
+        int base = slot * SLOT_BYTES;
+        long seq = ((long) LONG.getAcquire(map, base + SEQ) | 1) + 1;
+        LONG.setRelease(map, base + SEQ, seq + 1);
+        VarHandle.storeStoreFence();
+        LONG.setRelease(map, base + FAILING, failing ? 1L : 0L);
+        LONG.setRelease(map, base + MIN_RESPONSE, (long) minResponseTime);
+        LONG.setRelease(map, base + PROBED_AT, probedAtMillis);
+        LONG.setRelease(map, base + SEQ, seq + 2);
+    }
+
+    /** @return null se ninguem publicou ainda ou se o slot nao estabilizou (escritor morto no meio) */
+    public Snapshot read(int slot) {
+        int base = slot * SLOT_BYTES;
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            long seq = (long) LONG.getAcquire(map, base + SEQ);
+            if ((seq & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            long failing = (long) LONG.getAcquire(map, base + FAILING);
+            long minResponse = (long) LONG.getAcquire(map, base + MIN_RESPONSE);
+            long probedAt = (long) LONG.getAcquire(map, base + PROBED_AT);
+            VarHandle.loadLoadFence();
+            if ((long) LONG.getAcquire(map, base + SEQ) != seq) continue;
+            return probedAt == 0 ? null : new Snapshot(failing != 0, (int) minResponse, probedAt);
+        }
+        return null;
+    }
+
+    private void tryAcquire() {
+        try {
+            FileLock lock = channel.tryLock(0, Long.MAX_VALUE, false);
+            if (lock != null) {
+                leadership = lock;
+                System.out.println("Elected health prober");
+            }
+        } catch (IOException e) {
+            System.err.println("Health election failed: " + e);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.murilo.rinha.service;
+
+import com.murilo.rinha.metrics.Counter;
+import com.murilo.rinha.metrics.MetricsRegistry;
+import com.murilo.rinha.repository.PaymentTotals;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cache de summaries por (escopo, from, to) com single-flight: chamadas identicas
+ * concorrentes esperam o mesmo calculo. Os arrays devolvidos sao compartilhados, nao alterar.
+ *
+ * So fica retido o resultado de janelas estaveis, com {@code to} mais antigo que o
+ * horizonte de escrita atrasada (requestedAt e fixado antes da chamada ao processador, entao
+ * um save pode chegar ate esse tempo depois). Uma escrita atrasada que cai dentro de uma
+ * janela retida a invalida via {@link #onWrite(long)}; o resto so e coalescido. Resultados
+ * que dependem de escritas de fora (o summary mesclado com o peer) passam
+ * {@code retainable=false}.
+ */
+public final class SummaryCache {
+
+  private record Key(String scope, long from, long to) {}
+
+  private static final class Entry {
+    final CompletableFuture<PaymentTotals[]> result = new CompletableFuture<>();
+    final boolean retain;
+    volatile long costNanos;
+
+    Entry(boolean retain) {
+      this.retain = retain;
+    }
+  }
+
+  private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+  private final boolean enabled;
+  private final long lateWriteHorizonMillis;
+  private final int maxEntries;
+  /** Muda a cada escrita atrasada/purge; calculo que cruzou uma mudanca nao e retido. */
+  private final AtomicLong generation = new AtomicLong();
+
+  private final Counter hits;
+  private final Counter coalesced;
+  private final Counter misses;
+  private final Counter invalidations;
+  private final Counter savedMicros;
+
+  public SummaryCache(boolean enabled, long lateWriteHorizonMillis, int maxEntries) {
+    this.enabled = enabled;
+    this.lateWriteHorizonMillis = lateWriteHorizonMillis;
+    this.maxEntries = Math.max(1, maxEntries);
+
+    MetricsRegistry m = MetricsRegistry.global();
+    String help = "Summary lookups by cache outcome";
+    this.hits = m.counter("rinha_summary_cache_total", help, "result", "hit");
+    this.coalesced = m.counter("rinha_summary_cache_total", help, "result", "coalesced");
+    this.misses = m.counter("rinha_summary_cache_total", help, "result", "miss");
+    this.invalidations = m.counter("rinha_summary_cache_invalidations_total",
+        "Retained summaries dropped because a write landed in their window");
+    this.savedMicros = m.counter("rinha_summary_cache_saved_microseconds_total",
+        "Computation time avoided by hits and coalesced waits");
+    m.gauge("rinha_summary_cache_entries", "Summaries currently retained", entries::size);
+  }
+
+  public PaymentTotals[] get(String scope, long fromMillis, long toMillis, boolean retainable,
+      Supplier<PaymentTotals[]> compute) {
+    if (!enabled) return compute.get();
+    Key key = new Key(scope, fromMillis, toMillis);
+    long gen = generation.get();
+    boolean stable = retainable && toMillis < System.currentTimeMillis() - lateWriteHorizonMillis;
+
+    Entry mine = new Entry(stable);
+    Entry existing = entries.putIfAbsent(key, mine);
+    if (existing != null) {
+      boolean done = existing.result.isDone();
+      (done ? hits : coalesced).inc();
+      PaymentTotals[] value = join(existing);
+      savedMicros.add(existing.costNanos / 1000);
+      return value;
+    }
+
+    misses.inc();
+    long start = System.nanoTime();
+    try {
+      PaymentTotals[] value = compute.get();
+      mine.costNanos = System.nanoTime() - start;
+      mine.result.complete(value);
+      if (value == null || !mine.retain || generation.get() != gen || entries.size() > maxEntries) {
+        entries.remove(key, mine);
+      }
+      return value;
+    } catch (RuntimeException e) {
+      mine.result.completeExceptionally(e);
+      entries.remove(key, mine);
+      throw e;
+    }
+  }
+
+  /** Chamado depois de gravar um pagamento com requestedAt {@code millis}. */
+  public void onWrite(long millis) {
+    if (!enabled || millis >= System.currentTimeMillis() - lateWriteHorizonMillis) return;
+    generation.incrementAndGet();
+    entries.forEach((key, entry) -> {
+      if (millis >= key.from && millis <= key.to && entries.remove(key, entry)) invalidations.inc();
+    });
+  }
+
+  public void invalidateAll() {
+    generation.incrementAndGet();
+    entries.clear();
+  }
+
+  private static PaymentTotals[] join(Entry entry) {
+    try {
+      return entry.result.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException re) throw re;
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,220 @@
+package com.murilo.rinha.harness;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Processador de pagamentos falso em loopback, com a mesma API do oficial:
+ * POST /payments, GET /payments/service-health (1 chamada a cada 5s, senao 429),
+ * GET /admin/payments-summary e POST /admin/purge-payments. Latencia, falhas e
+ * limite de taxa seguem um {@link ProcessorScript}.
+ */
+final class FakeProcessor implements Closeable {
+
+  private static final long HEALTH_MIN_INTERVAL_MS = 5000;
+
+  record Payment(long requestedAtMillis, long cents) {}
+
+  record Totals(long requests, BigDecimal amount) {}
+
+  private final String name;
+  private final ProcessorScript script;
+  private final HttpServer server;
+  private final long startMillis = System.currentTimeMillis();
+  private final Map<String, Payment> payments = new ConcurrentHashMap<>();
+
+  private final AtomicLong rateWindow = new AtomicLong();
+  private final AtomicLong rateCount = new AtomicLong();
+  private final AtomicLong lastHealth = new AtomicLong();
+
+  final LongAdder accepted = new LongAdder();
+  final LongAdder failed = new LongAdder();
+  final LongAdder rateLimited = new LongAdder();
+  final LongAdder duplicates = new LongAdder();
+  final LongAdder healthCalls = new LongAdder();
+
+  FakeProcessor(String name, ProcessorScript script) throws IOException {
+    this.name = name;
+    this.script = script;
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+    server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    server.createContext("/payments", this::payments);
+    server.createContext("/admin/payments-summary", this::summary);
+    server.createContext("/admin/purge-payments", this::purge);
+    server.start();
+  }
+
+  String name() {
+    return name;
+  }
+
+  int port() {
+    return server.getAddress().getPort();
+  }
+
+  Totals totals(Instant from, Instant to) {
+    long fromMs = from.toEpochMilli(), toMs = to.toEpochMilli();
+    long count = 0, cents = 0;
+    for (Payment p : payments.values()) {
+      if (p.requestedAtMillis >= fromMs && p.requestedAtMillis <= toMs) {
+        count++;
+        cents += p.cents;
+      }
+    }
+    return new Totals(count, BigDecimal.valueOf(cents, 2));
+  }
+
+  long recorded() {
+    return payments.size();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+
+  private void payments(HttpExchange ex) throws IOException {
+    try (ex) {
+      String path = ex.getRequestURI().getPath();
+      if (path.equals("/payments/service-health")) {
+        health(ex);
+        return;
+      }
+      if (!path.equals("/payments") || !ex.getRequestMethod().equals("POST")) {
+        send(ex, 404, "");
+        return;
+      }
+      String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+      ProcessorScript.Phase phase = script.at(System.currentTimeMillis() - startMillis);
+      if (phase.ratePerSecond() > 0 && !acquire(phase.ratePerSecond())) {
+        rateLimited.increment();
+        send(ex, 429, "");
+        return;
+      }
+      long delay = phase.delayMillis();
+      if (delay > 0) sleep(delay);
+      if (phase.failing()) {
+        failed.increment();
+        send(ex, 500, "");
+        return;
+      }
+      String correlationId = value(body, "correlationId");
+      String amount = value(body, "amount");
+      String requestedAt = value(body, "requestedAt");
+      if (correlationId == null || amount == null || requestedAt == null) {
+        send(ex, 400, "");
+        return;
+      }
+      Payment p = new Payment(Instant.parse(requestedAt).toEpochMilli(),
+          new BigDecimal(amount).movePointRight(2).longValueExact());
+      if (payments.putIfAbsent(correlationId, p) != null) {
+        duplicates.increment();
+        send(ex, 422, "{\"message\":\"CorrelationId already exists\"}");
+        return;
+      }
+      accepted.increment();
+      send(ex, 200, "{\"message\":\"payment processed successfully\"}");
+    }
+  }
+
+  private void health(HttpExchange ex) throws IOException {
+    healthCalls.increment();
+    long now = System.currentTimeMillis();
+    long last = lastHealth.get();
+    if (now - last < HEALTH_MIN_INTERVAL_MS || !lastHealth.compareAndSet(last, now)) {
+      send(ex, 429, "");
+      return;
+    }
+    ProcessorScript.Phase phase = script.at(now - startMillis);
+    send(ex, 200, "{\"failing\":" + phase.failing() + ",\"minResponseTime\":" + phase.latencyMs() + "}");
+  }
+
+  private void summary(HttpExchange ex) throws IOException {
+    try (ex) {
+      Map<String, String> q = query(ex.getRequestURI().getRawQuery());
+      Instant from = q.containsKey("from") ? Instant.parse(q.get("from")) : Instant.EPOCH;
+      Instant to = q.containsKey("to") ? Instant.parse(q.get("to")) : Instant.now().plusSeconds(3600);
+      Totals t = totals(from, to);
+      send(ex, 200, "{\"totalRequests\":" + t.requests() + ",\"totalAmount\":" + t.amount().toPlainString() + "}");
+    }
+  }
+
+  private void purge(HttpExchange ex) throws IOException {
+    try (ex) {
+      payments.clear();
+      send(ex, 200, "{\"message\":\"All payments purged.\"}");
+    }
+  }
+
+  // janela fixa de 1s
+  private boolean acquire(int perSecond) {
+    long second = System.currentTimeMillis() / 1000;
+    long window = rateWindow.get();
+    if (window != second && rateWindow.compareAndSet(window, second)) rateCount.set(0);
+    return rateCount.incrementAndGet() <= perSecond;
+  }
+
+  private static void send(HttpExchange ex, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > 0) ex.getResponseHeaders().set("Content-Type", "application/json");
+    ex.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+    if (bytes.length > 0) {
+      try (OutputStream out = ex.getResponseBody()) {
+        out.write(bytes);
+      }
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // aceita valor com ou sem aspas
+  static String value(String json, String key) {
+    int k = json.indexOf("\"" + key + "\"");
+    if (k < 0) return null;
+    int i = json.indexOf(':', k) + 1;
+    while (i < json.length() && json.charAt(i) == ' ') i++;
+    if (i >= json.length()) return null;
+    if (json.charAt(i) == '"') {
+      int end = json.indexOf('"', i + 1);
+      return end < 0 ? null : json.substring(i + 1, end);
+    }
+    int end = i;
+    while (end < json.length() && ",} \r\n".indexOf(json.charAt(end)) < 0) end++;
+    return json.substring(i, end);
+  }
+
+  static Map<String, String> query(String raw) {
+    Map<String, String> out = new HashMap<>();
+    if (raw == null || raw.isEmpty()) return out;
+    for (String pair : raw.split("&")) {
+      int eq = pair.indexOf('=');
+      if (eq > 0) {
+        out.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+            URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+      }
+    }
+    return out;
+  }
+}
@@ -0,0 +1,301 @@
+package com.murilo.rinha.harness;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.murilo.rinha.metrics.Histogram;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Teste de carga offline: sobe dois {@link FakeProcessor} em loopback, duas instancias da
+ * API (como no compose, uma apontando para a outra via PEER_SOCKET) em sockets UDS
+ * temporarios, e dispara POST /payments e GET /payments-summary. No fim compara o summary
+ * da API com o que os processadores falsos realmente receberam.
+ *
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/classes:target/test-classes:$(cat target/cp.txt) \
+ *   com.murilo.rinha.harness.LoadHarness --duration 30 --concurrency 64 --rate 1500 \
+ *   --default "latency=5;10000-15000:fail" --fallback "latency=40" --env RINHA_DLQ_WORKER_NUM=2
+ * </pre>
+ *
+ * Opcoes: --duration s, --concurrency N, --rate POST/s (0 = malha fechada), --amount,
+ * --summary-every ms (0 desliga), --settle ms, --default/--fallback roteiro
+ * ({@link ProcessorScript}), --jvm "args da API", --env CHAVE=VALOR (repetivel), --keep.
+ * Sai com status 1 se o summary divergir dos processadores.
+ */
+public final class LoadHarness {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final Map<String, String> opts = new HashMap<>();
+  private final List<String> env = new ArrayList<>();
+
+  private final Histogram postLatency = new Histogram();
+  private final Histogram summaryLatency = new Histogram();
+  private final LongAdder ok = new LongAdder();
+  private final LongAdder tooMany = new LongAdder();
+  private final LongAdder unavailable = new LongAdder();
+  private final LongAdder otherStatus = new LongAdder();
+  private final LongAdder ioErrors = new LongAdder();
+  private final LongAdder summaryErrors = new LongAdder();
+
+  private volatile boolean running = true;
+
+  public static void main(String[] args) throws Exception {
+    LoadHarness h = new LoadHarness();
+    h.parse(args);
+    System.exit(h.run() ? 0 : 1);
+  }
+
+  private void parse(String[] args) {
+    for (int i = 0; i < args.length; i++) {
+      String a = args[i];
+      if (!a.startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + a);
+      String key = a.substring(2);
+      if (key.equals("keep")) {
+        opts.put(key, "true");
+        continue;
+      }
+      if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + a);
+      String value = args[++i];
+      if (key.equals("env")) env.add(value); else opts.put(key, value);
+    }
+  }
+
+  private int intOpt(String key, int def) {
+    return opts.containsKey(key) ? Integer.parseInt(opts.get(key)) : def;
+  }
+
+  private boolean run() throws Exception {
+    int durationSec = intOpt("duration", 30);
+    int concurrency = intOpt("concurrency", 64);
+    int rate = intOpt("rate", 0);
+    int summaryEvery = intOpt("summary-every", 1000);
+    int settleMs = intOpt("settle", 15000);
+    String amount = opts.getOrDefault("amount", "19.90");
+
+    Path dir = Files.createTempDirectory("rinha-harness");
+    List<Process> apps = new ArrayList<>();
+    try (FakeProcessor def = new FakeProcessor("default", ProcessorScript.parse(opts.get("default")));
+         FakeProcessor fb = new FakeProcessor("fallback", ProcessorScript.parse(opts.get("fallback")))) {
+      Path[] sockets = {dir.resolve("api1.sock"), dir.resolve("api2.sock")};
+      for (int i = 0; i < sockets.length; i++) {
+        apps.add(startApp("api" + (i + 1), dir, sockets[i], sockets[(i + 1) % sockets.length], def, fb));
+      }
+      for (Path s : sockets) awaitReady(s, Duration.ofSeconds(15));
+      System.out.printf("processors: default=127.0.0.1:%d fallback=127.0.0.1:%d, apps in %s%n", def.port(), fb.port(), dir);
+
+      Instant from = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+      long start = System.nanoTime();
+      long end = start + durationSec * 1_000_000_000L;
+
+      List<Thread> workers = new ArrayList<>();
+      long intervalNanos = rate > 0 ? 1_000_000_000L * concurrency / rate : 0;
+      for (int w = 0; w < concurrency; w++) {
+        Path target = sockets[w % sockets.length];
+        long offset = intervalNanos * w / concurrency;
+        workers.add(Thread.ofVirtual().start(() -> post(target, amount, start + offset, intervalNanos, end)));
+      }
+      Thread summaries = summaryEvery > 0
+          ? Thread.ofVirtual().start(() -> summaries(sockets, from, summaryEvery, end))
+          : null;
+      for (Thread t : workers) t.join();
+      if (summaries != null) summaries.join();
+      running = false;
+      double elapsed = (System.nanoTime() - start) / 1e9;
+
+      settle(sockets, def, fb, settleMs);
+      Instant to = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+      boolean consistent = report(elapsed, sockets[0], from, to, def, fb);
+      if (!consistent) System.out.println("logs: " + dir);
+      return consistent;
+    } finally {
+      for (Process p : apps) p.destroy();
+      for (Process p : apps) p.waitFor();
+      if (!opts.containsKey("keep")) delete(dir);
+    }
+  }
+
+  private Process startApp(String name, Path dir, Path socket, Path peer, FakeProcessor def, FakeProcessor fb)
+      throws IOException {
+    List<String> cmd = new ArrayList<>();
+    cmd.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+    String jvm = opts.get("jvm");
+    if (jvm != null && !jvm.isBlank()) cmd.addAll(List.of(jvm.trim().split("\\s+")));
+    cmd.add("-cp");
+    cmd.add(System.getProperty("java.class.path"));
+    cmd.add("com.murilo.rinha.RinhaApplication");
+
+    ProcessBuilder pb = new ProcessBuilder(cmd);
+    Map<String, String> e = pb.environment();
+    e.put("SOCKET", socket.toString());
+    e.put("PEER_SOCKET", peer.toString());
+    e.put("MAIN_PROCESSOR_HOST", "127.0.0.1");
+    e.put("MAIN_PROCESSOR_PORT", String.valueOf(def.port()));
+    e.put("FALLBACK_PROCESSOR_HOST", "127.0.0.1");
+    e.put("FALLBACK_PROCESSOR_PORT", String.valueOf(fb.port()));
+    for (String kv : env) {
+      int eq = kv.indexOf('=');
+      if (eq <= 0) throw new IllegalArgumentException("Expected KEY=VALUE: " + kv);
+      e.put(kv.substring(0, eq), kv.substring(eq + 1));
+    }
+    pb.redirectErrorStream(true);
+    pb.redirectOutput(dir.resolve(name + ".log").toFile());
+    return pb.start();
+  }
+
+  private static void awaitReady(Path socket, Duration timeout) throws Exception {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    while (System.nanoTime() < deadline) {
+      try (UdsHttpConnection c = new UdsHttpConnection(socket)) {
+        if (c.get("/metrics") == 200) return;
+      } catch (IOException notYet) {
+        Thread.sleep(100);
+      }
+    }
+    throw new IllegalStateException("API did not come up on " + socket);
+  }
+
+  // com taxa, a latencia conta a partir do horario agendado (sem omissao coordenada)
+  private void post(Path socket, String amount, long firstNanos, long intervalNanos, long endNanos) {
+    long scheduled = firstNanos;
+    try (UdsHttpConnection c = new UdsHttpConnection(socket)) {
+      while (true) {
+        if (intervalNanos > 0) {
+          long wait = scheduled - System.nanoTime();
+          if (wait > 0) LockSupport.parkNanos(wait);
+        }
+        long sent = intervalNanos > 0 ? scheduled : System.nanoTime();
+        if (sent >= endNanos) return;
+        byte[] body = ("{\"correlationId\":\"" + UUID.randomUUID() + "\",\"amount\":" + amount + "}")
+            .getBytes(StandardCharsets.UTF_8);
+        try {
+          int status = c.post("/payments", body);
+          postLatency.recordSince(sent);
+          switch (status) {
+            case 200 -> ok.increment();
+            case 429 -> tooMany.increment();
+            case 503 -> unavailable.increment();
+            default -> otherStatus.increment();
+          }
+        } catch (IOException e) {
+          ioErrors.increment();
+        }
+        scheduled += intervalNanos;
+      }
+    }
+  }
+
+  private void summaries(Path[] sockets, Instant from, int everyMs, long endNanos) {
+    int i = 0;
+    while (System.nanoTime() < endNanos) {
+      try (UdsHttpConnection c = new UdsHttpConnection(sockets[i++ % sockets.length])) {
+        long start = System.nanoTime();
+        int status = c.get("/payments-summary?from=" + from + "&to=" + Instant.now().truncatedTo(ChronoUnit.MILLIS));
+        summaryLatency.recordSince(start);
+        if (status != 200) summaryErrors.increment();
+      } catch (IOException e) {
+        summaryErrors.increment();
+      }
+      LockSupport.parkNanos(everyMs * 1_000_000L);
+    }
+  }
+
+  // espera as filas esvaziarem e os processadores pararem de receber
+  private static void settle(Path[] sockets, FakeProcessor def, FakeProcessor fb, int settleMs) throws InterruptedException {
+    long deadline = System.nanoTime() + settleMs * 1_000_000L;
+    long last = -1;
+    while (System.nanoTime() < deadline) {
+      long recorded = def.recorded() + fb.recorded();
+      double depth = 0;
+      for (Path s : sockets) depth += queueDepth(s);
+      if (depth == 0 && recorded == last) return;
+      last = recorded;
+      Thread.sleep(500);
+    }
+    System.out.println("warning: queues did not drain within --settle " + settleMs + "ms");
+  }
+
+  private static double queueDepth(Path socket) {
+    try (UdsHttpConnection c = new UdsHttpConnection(socket)) {
+      if (c.get("/metrics") != 200) return -1;
+      for (String line : c.body().split("\n")) {
+        if (line.startsWith("rinha_queue_depth ")) return Double.parseDouble(line.substring(18).trim());
+      }
+      return 0;
+    } catch (IOException e) {
+      return -1;
+    }
+  }
+
+  private boolean report(double elapsed, Path socket, Instant from, Instant to, FakeProcessor def, FakeProcessor fb)
+      throws IOException {
+    long total = ok.sum() + tooMany.sum() + unavailable.sum() + otherStatus.sum();
+    System.out.println();
+    System.out.printf("POST /payments: %d requests in %.1fs = %.0f req/s%n", total, elapsed, total / elapsed);
+    System.out.printf("  200=%d 429=%d 503=%d other=%d io-errors=%d%n",
+        ok.sum(), tooMany.sum(), unavailable.sum(), otherStatus.sum(), ioErrors.sum());
+    System.out.println("  latency " + quantiles(postLatency));
+    System.out.printf("GET /payments-summary: %d requests, errors=%d%n", summaryLatency.count(), summaryErrors.sum());
+    if (summaryLatency.count() > 0) System.out.println("  latency " + quantiles(summaryLatency));
+    for (FakeProcessor p : List.of(def, fb)) {
+      System.out.printf("processor %s: accepted=%d failed=%d rate-limited=%d duplicates=%d health-calls=%d%n",
+          p.name(), p.accepted.sum(), p.failed.sum(), p.rateLimited.sum(), p.duplicates.sum(), p.healthCalls.sum());
+    }
+
+    JsonNode summary;
+    try (UdsHttpConnection c = new UdsHttpConnection(socket)) {
+      int status = c.get("/payments-summary?from=" + from + "&to=" + to);
+      if (status != 200) {
+        System.out.println("summary: HTTP " + status);
+        return false;
+      }
+      summary = MAPPER.readTree(c.body());
+    }
+    boolean consistent = true;
+    for (FakeProcessor p : List.of(def, fb)) {
+      FakeProcessor.Totals expected = p.totals(from, to);
+      JsonNode node = summary.path(p.name());
+      long requests = node.path("totalRequests").asLong();
+      BigDecimal amount = new BigDecimal(node.path("totalAmount").asText("0"));
+      boolean match = requests == expected.requests() && amount.compareTo(expected.amount()) == 0;
+      consistent &= match;
+      System.out.printf("summary %s: api=%d/%s processor=%d/%s %s%n", p.name(), requests, amount.toPlainString(),
+          expected.requests(), expected.amount().toPlainString(), match ? "OK" : "MISMATCH");
+    }
+    long processed = def.recorded() + fb.recorded();
+    if (processed != ok.sum()) {
+      System.out.printf("accepted 200s=%d but processors recorded %d (%+d)%n", ok.sum(), processed, processed - ok.sum());
+    }
+    return consistent;
+  }
+
+  private static String quantiles(Histogram h) {
+    return String.format("p50=%.2fms p99=%.2fms p999=%.2fms max~%.2fms", h.quantile(0.5) / 1e6,
+        h.quantile(0.99) / 1e6, h.quantile(0.999) / 1e6, h.quantile(1.0) / 1e6);
+  }
+
+  private static void delete(Path dir) {
+    try (Stream<Path> files = Files.walk(dir)) {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    } catch (IOException ignore) {
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package com.murilo.rinha.harness;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Roteiro de comportamento de um {@link FakeProcessor}, em fases relativas ao inicio do teste.
+ *
+ * Formato: fases separadas por ';', cada uma "[inicioMs-fimMs:]opcao,opcao...". A fase sem
+ * intervalo e a base; as demais valem dentro do intervalo [inicio, fim). Opcoes:
+ * latency=ms, jitter=ms, fail (500 em todo POST e health failing=true), rate=N (POST/s, 429 acima).
+ * Ex.: "latency=5;10000-15000:fail;20000-30000:latency=300,jitter=100,rate=200"
+ */
+final class ProcessorScript {
+
+  record Phase(long fromMs, long toMs, int latencyMs, int jitterMs, boolean failing, int ratePerSecond) {
+
+    long delayMillis() {
+      return jitterMs > 0 ? latencyMs + ThreadLocalRandom.current().nextInt(jitterMs + 1) : latencyMs;
+    }
+  }
+
+  private final Phase base;
+  private final List<Phase> phases;
+
+  private ProcessorScript(Phase base, List<Phase> phases) {
+    this.base = base;
+    this.phases = phases;
+  }
+
+  static ProcessorScript parse(String spec) {
+    Phase base = new Phase(0, Long.MAX_VALUE, 0, 0, false, 0);
+    List<Phase> phases = new ArrayList<>();
+    if (spec == null || spec.isBlank()) return new ProcessorScript(base, phases);
+    for (String part : spec.split(";")) {
+      part = part.trim();
+      if (part.isEmpty()) continue;
+      long from = 0, to = Long.MAX_VALUE;
+      int colon = part.indexOf(':');
+      if (colon >= 0) {
+        String range = part.substring(0, colon);
+        int dash = range.indexOf('-');
+        if (dash < 0) throw new IllegalArgumentException("Invalid phase range: " + range);
+        from = Long.parseLong(range.substring(0, dash).trim());
+        to = Long.parseLong(range.substring(dash + 1).trim());
+        part = part.substring(colon + 1);
+      }
+      // fases herdam o que nao sobrescrevem da base
+      Phase p = options(colon >= 0 ? new Phase(from, to, base.latencyMs, base.jitterMs, false, base.ratePerSecond) : base, part);
+      if (colon >= 0) phases.add(p); else base = p;
+    }
+    return new ProcessorScript(base, phases);
+  }
+
+  private static Phase options(Phase p, String options) {
+    int latency = p.latencyMs, jitter = p.jitterMs, rate = p.ratePerSecond;
+    boolean failing = p.failing;
+    for (String opt : options.split(",")) {
+      opt = opt.trim();
+      if (opt.isEmpty()) continue;
+      int eq = opt.indexOf('=');
+      String key = eq < 0 ? opt : opt.substring(0, eq);
+      String value = eq < 0 ? "" : opt.substring(eq + 1);
+      switch (key) {
+        case "latency" -> latency = Integer.parseInt(value);
+        case "jitter" -> jitter = Integer.parseInt(value);
+        case "rate" -> rate = Integer.parseInt(value);
+        case "fail" -> failing = value.isEmpty() || Boolean.parseBoolean(value);
+        default -> throw new IllegalArgumentException("Unknown script option: " + key);
+      }
+    }
+    return new Phase(p.fromMs, p.toMs, latency, jitter, failing, rate);
+  }
+
+  Phase at(long elapsedMs) {
+    for (Phase p : phases) {
+      if (elapsedMs >= p.fromMs && elapsedMs < p.toMs) return p;
+    }
+    return base;
+  }
+}
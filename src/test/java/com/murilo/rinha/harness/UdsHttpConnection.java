@@ -0,0 +1,93 @@
+package com.murilo.rinha.harness;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/** Conexao HTTP/1.1 keep-alive sobre UDS, um request por vez. */
+final class UdsHttpConnection implements Closeable {
+
+  private final Path socket;
+  private final ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+  private SocketChannel ch;
+  private String lastBody = "";
+
+  UdsHttpConnection(Path socket) {
+    this.socket = socket;
+  }
+
+  int post(String path, byte[] body) throws IOException {
+    String head = "POST " + path + " HTTP/1.1\r\n"
+        + "Host: localhost\r\n"
+        + "Content-Type: application/json\r\n"
+        + "Content-Length: " + body.length + "\r\n\r\n";
+    byte[] h = head.getBytes(StandardCharsets.US_ASCII);
+    ByteBuffer out = ByteBuffer.allocate(h.length + body.length).put(h).put(body).flip();
+    return exchange(out);
+  }
+
+  int get(String pathWithQuery) throws IOException {
+    String head = "GET " + pathWithQuery + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+    return exchange(ByteBuffer.wrap(head.getBytes(StandardCharsets.US_ASCII)));
+  }
+
+  String body() {
+    return lastBody;
+  }
+
+  @Override
+  public void close() {
+    if (ch != null) {
+      try { ch.close(); } catch (IOException ignore) {}
+      ch = null;
+    }
+  }
+
+  private int exchange(ByteBuffer out) throws IOException {
+    if (ch == null) ch = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+    try {
+      while (out.hasRemaining()) ch.write(out);
+      return readResponse();
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  private int readResponse() throws IOException {
+    in.clear();
+    int headerEnd;
+    while ((headerEnd = headerEnd()) < 0) {
+      if (!in.hasRemaining() || ch.read(in) < 0) throw new IOException("Connection closed before response header");
+    }
+    String head = new String(in.array(), 0, headerEnd, StandardCharsets.US_ASCII);
+    int status = Integer.parseInt(head.substring(9, 12));
+    String lower = head.toLowerCase();
+    int contentLength = 0;
+    int cl = lower.indexOf("\ncontent-length:");
+    if (cl >= 0) {
+      int end = lower.indexOf('\r', cl);
+      contentLength = Integer.parseInt(lower.substring(cl + 16, end).trim());
+    }
+    int total = headerEnd + 4 + contentLength;
+    while (in.position() < total) {
+      if (!in.hasRemaining() || ch.read(in) < 0) throw new IOException("Connection closed before response body");
+    }
+    lastBody = contentLength == 0 ? "" : new String(in.array(), headerEnd + 4, contentLength, StandardCharsets.UTF_8);
+    if (lower.contains("\nconnection: close")) close();
+    return status;
+  }
+
+  private int headerEnd() {
+    byte[] b = in.array();
+    for (int i = 3; i < in.position(); i++) {
+      if (b[i - 3] == '\r' && b[i - 2] == '\n' && b[i - 1] == '\r' && b[i] == '\n') return i - 3;
+    }
+    return -1;
+  }
+}